@@ -4,7 +4,7 @@
 
 pm2 stop film-backend  && pm2 delete film-backend
 
-pm2 start "java -jar target/filmpostcard-0.0.1-SNAPSHOT.jar --server.port=8081" --name film-backend
+pm2 start "java -jar target/filmpostcard-0.0.1-SNAPSHOT.jar --server.port=8081 --spring.profiles.active=prod" --name film-backend
 
 pm2 save
 
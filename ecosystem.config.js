@@ -30,7 +30,9 @@ module.exports = {
     max_memory_restart: '1G',
     env: {
       ...envConfig,
-      NODE_ENV: 'production'
+      NODE_ENV: 'production',
+      // application-prod.properties: no SQL echo
+      SPRING_PROFILES_ACTIVE: 'prod'
     },
     error_file: './logs/err.log',
     out_file: './logs/out.log',
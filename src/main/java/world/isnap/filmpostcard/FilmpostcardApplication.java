@@ -2,8 +2,10 @@ package world.isnap.filmpostcard;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class FilmpostcardApplication {
 
 	public static void main(String[] args) {
@@ -1,31 +1,47 @@
 package world.isnap.filmpostcard.controller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import world.isnap.filmpostcard.dto.*;
+import world.isnap.filmpostcard.security.AdminUsers;
+import world.isnap.filmpostcard.security.AuthenticatedUser;
 import world.isnap.filmpostcard.service.AIService;
+import world.isnap.filmpostcard.service.DownloadRollupService;
 import world.isnap.filmpostcard.service.DownloadService;
+import world.isnap.filmpostcard.service.ExportService;
 import world.isnap.filmpostcard.service.FileStorageService;
+import world.isnap.filmpostcard.service.ImageDecodeLimiter;
+import world.isnap.filmpostcard.service.ImageDerivativeService;
+import world.isnap.filmpostcard.service.ImageResizeService;
+import world.isnap.filmpostcard.service.ImageVariantService;
 import world.isnap.filmpostcard.service.OrderService;
 import world.isnap.filmpostcard.service.PhotoService;
 import world.isnap.filmpostcard.service.PostcardService;
 import world.isnap.filmpostcard.service.StorageQuotaService;
+import world.isnap.filmpostcard.service.ThumbnailCacheService;
+import world.isnap.filmpostcard.service.ThumbnailPackService;
 import world.isnap.filmpostcard.service.UserService;
-import world.isnap.filmpostcard.util.JwtUtil;
+import world.isnap.filmpostcard.util.ImageResponseUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 @RestController
 @RequestMapping("/api")
@@ -39,10 +55,16 @@ public class PostcardController {
     private final AIService aiService;
     private final OrderService orderService;
     private final DownloadService downloadService;
-    private final JwtUtil jwtUtil;
+    private final DownloadRollupService downloadRollupService;
+    private final ExportService exportService;
+    private final AdminUsers adminUsers;
     private final UserService userService;
     private final StorageQuotaService storageQuotaService;
     private final PhotoService photoService;
+    private final ImageDerivativeService imageDerivativeService;
+    private final ImageVariantService imageVariantService;
+    private final ThumbnailPackService thumbnailPackService;
+    private final ThumbnailCacheService thumbnailCacheService;
     
     // Cache to prevent duplicate uploads (key: username:filesize:filename, value: response)
     private final ConcurrentHashMap<String, CachedUploadResponse> uploadCache = new ConcurrentHashMap<>();
@@ -60,14 +82,15 @@ public class PostcardController {
             @RequestParam(value = "type", defaultValue = "photo") String fileType,
             @RequestParam(value = "albumId", required = false) String albumId,
             @RequestParam(value = "idempotencyKey", required = false) String idempotencyKey,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
-            // Extract and validate JWT token
-            String username = extractUsernameFromToken(authHeader);
-            if (username == null) {
+            // Caller resolved from the JWT by JwtAuthenticationFilter
+            if (principal == null) {
+                log.warn("Missing or invalid JWT token");
                 return ResponseEntity.status(401)
                         .body(Map.of("error", "Unauthorized", "message", "Valid JWT token required"));
             }
+            String username = principal.username();
             
             // Validate image
             if (image.isEmpty()) {
@@ -94,53 +117,87 @@ public class PostcardController {
                 default -> FileStorageService.FileType.PHOTO; // Default to photo
             };
 
-            // Get user entity and check quota
+            // Get user entity and reserve quota; the reservation is released unless committed below
             world.isnap.filmpostcard.entity.User user = userService.getUserEntity(username);
-            storageQuotaService.validateUpload(user, image.getSize());
+            try (StorageQuotaService.StorageReservation reservation = storageQuotaService.reserveUpload(user, image.getSize())) {
+                // Store file in user-specific directory with type subdirectory
+                FileStorageService.StoredFile storedFile = fileStorageService.storeFileWithSize(image, username, type);
+                String imageUrl = "/api/images/" + storedFile.getRelativePath();
+                String imageUrlThumb = storedFile.getRelativePathThumb() != null ? "/api/images/" + storedFile.getRelativePathThumb() : null;
+                String imageUrlMedium = storedFile.getRelativePathMedium() != null ? "/api/images/" + storedFile.getRelativePathMedium() : null;
             
-            // Store file in user-specific directory with type subdirectory
-            FileStorageService.StoredFile storedFile = fileStorageService.storeFileWithSize(image, username, type);
-            String imageUrl = "/api/images/" + storedFile.getRelativePath();
-            String imageUrlThumb = storedFile.getRelativePathThumb() != null ? "/api/images/" + storedFile.getRelativePathThumb() : null;
-            String imageUrlMedium = storedFile.getRelativePathMedium() != null ? "/api/images/" + storedFile.getRelativePathMedium() : null;
-            
-            // Update user's storage usage
-            storageQuotaService.incrementStorage(user, storedFile.getFileSize());
+                // Identical content already stored as one of this user's photos (content-addressed store):
+                // drop the extra blob reference and don't charge the quota twice
+                PhotoResponse existingPhoto = null;
+                if (type == FileStorageService.FileType.PHOTO && fileStorageService.isBlobPath(storedFile.getRelativePath())) {
+                    existingPhoto = photoService.findPhotoByImageUrl(username, imageUrl).orElse(null);
+                }
+                if (existingPhoto != null) {
+                    log.info("User {} re-uploaded existing photo content: {}", username, storedFile.getRelativePath());
+                    fileStorageService.deleteFile(storedFile.getRelativePath());
+                }
             
-            // If this is a photo type and albumId is provided, create Photo record
-            String photoId = storedFile.getRelativePath();
-            if (type == FileStorageService.FileType.PHOTO) {
-                log.info("Creating photo record for user: {} with albumId: {}", username, albumId);
-                PhotoUploadRequest photoRequest = PhotoUploadRequest.builder()
-                        .imageUrl(imageUrl)
-                        .imageUrlThumb(imageUrlThumb)    // ✅ 添加缩略图URL
-                        .imageUrlMedium(imageUrlMedium)  // ✅ 添加中等尺寸URL
-                        .albumId(albumId)
-                        .build();
+                // If this is a photo type and albumId is provided, create Photo record
+                String photoId = storedFile.getRelativePath();
+                String derivativeStatus = null;
+                if (existingPhoto != null) {
+                    photoId = existingPhoto.getId();
+                    imageUrlThumb = existingPhoto.getImageUrlThumb();
+                    imageUrlMedium = existingPhoto.getImageUrlMedium();
+                    derivativeStatus = existingPhoto.getDerivativeStatus();
+                } else if (type == FileStorageService.FileType.PHOTO) {
+                    log.info("Creating photo record for user: {} with albumId: {}", username, albumId);
+                    PhotoUploadRequest photoRequest = PhotoUploadRequest.builder()
+                            .imageUrl(imageUrl)
+                            .imageUrlThumb(imageUrlThumb)    // ✅ 添加缩略图URL
+                            .imageUrlMedium(imageUrlMedium)  // ✅ 添加中等尺寸URL
+                            .albumId(albumId)
+                            .build();
                 
-                try {
-                    PhotoResponse photoResponse = photoService.uploadPhoto(username, photoRequest);
-                    photoId = photoResponse.getId();
-                    log.info("Photo record created: {} in album: {} (thumb: {}, medium: {})", 
-                            photoId, albumId, imageUrlThumb, imageUrlMedium);
-                } catch (RuntimeException e) {
-                    log.error("Failed to create photo record with album: {}", albumId, e);
-                    // Re-throw the exception to properly handle the error
-                    throw e;
+                    try {
+                        PhotoResponse photoResponse = photoService.uploadPhoto(username, photoRequest);
+                        photoId = photoResponse.getId();
+                        log.info("Photo record created: {} in album: {}", photoId, albumId);
+                    
+                        if (imageUrlThumb != null && imageUrlMedium != null) {
+                            // Versions reused from an earlier upload of the same content
+                            derivativeStatus = ImageDerivativeService.STATUS_READY;
+                        } else {
+                            // Thumb/medium versions are generated in the background and filled in on the photo record
+                            imageDerivativeService.submit(Long.valueOf(photoId), storedFile.getRelativePath());
+                            derivativeStatus = ImageDerivativeService.STATUS_PENDING;
+                        }
+                    } catch (RuntimeException e) {
+                        log.error("Failed to create photo record with album: {}", albumId, e);
+                        // Nothing references the stored file; drop it along with the reservation
+                        try {
+                            fileStorageService.deleteFile(storedFile.getRelativePath());
+                        } catch (IOException cleanupError) {
+                            log.warn("Failed to remove orphaned upload: {}", storedFile.getRelativePath(), cleanupError);
+                        }
+                        // Re-throw the exception to properly handle the error
+                        throw e;
+                    }
                 }
-            }
             
-            ImageUploadResponse response = ImageUploadResponse.builder()
-                    .id(photoId)
-                    .url(imageUrl)
-                    .urlThumb(imageUrlThumb)
-                    .urlMedium(imageUrlMedium)
-                    .filename(storedFile.getRelativePath())
-                    .fileSize(storedFile.getFileSize())
-                    .build();
+                // Charge the quota only for content that is now stored for this upload
+                if (existingPhoto == null) {
+                    reservation.commit(storedFile.getFileSize());
+                }
             
-            log.info("Image uploaded successfully: {} (type: {}) for user: {}", storedFile.getRelativePath(), type, username);
-            return ResponseEntity.ok(response);
+                ImageUploadResponse response = ImageUploadResponse.builder()
+                        .id(photoId)
+                        .url(imageUrl)
+                        .urlThumb(imageUrlThumb)
+                        .urlMedium(imageUrlMedium)
+                        .derivativeStatus(derivativeStatus)
+                        .filename(storedFile.getRelativePath())
+                        .fileSize(storedFile.getFileSize())
+                        .build();
+            
+                log.info("Image uploaded successfully: {} (type: {}) for user: {}", storedFile.getRelativePath(), type, username);
+                return ResponseEntity.ok(response);
+            }
         } catch (IOException e) {
             log.error("Error uploading image", e);
             return ResponseEntity.internalServerError()
@@ -152,39 +209,6 @@ public class PostcardController {
         }
     }
     
-    /**
-     * Extract username from JWT token in Authorization header
-     * @param authHeader Authorization header (Bearer token)
-     * @return username if valid, null otherwise
-     */
-    private String extractUsernameFromToken(String authHeader) {
-        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-            log.warn("Missing or invalid Authorization header");
-            return null;
-        }
-        
-        String token = authHeader.substring(7); // Remove "Bearer " prefix
-        
-        if (!jwtUtil.validateToken(token)) {
-            log.warn("Invalid JWT token");
-            return null;
-        }
-        
-        if (jwtUtil.isTokenExpired(token)) {
-            log.warn("Expired JWT token");
-            return null;
-        }
-        
-        String username = jwtUtil.getUsernameFromToken(token);
-        if (username == null) {
-            log.warn("Unable to extract username from token");
-            return null;
-        }
-        
-        log.debug("Authenticated user: {}", username);
-        return username;
-    }
-    
     /**
      * Clean up old cache entries to prevent memory leaks
      */
@@ -260,9 +284,26 @@ public class PostcardController {
     }
     
     @GetMapping("/postcards")
-    public ResponseEntity<List<PostcardResponse>> getAllPostcards() {
-        List<PostcardResponse> postcards = postcardService.getAllPostcards();
-        return ResponseEntity.ok(postcards);
+    public ResponseEntity<?> getAllPostcards(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        if (cursor == null && limit == null) {
+            // Legacy: full list
+            return ResponseEntity.ok(postcardService.getAllPostcards());
+        }
+        try {
+            return ResponseEntity.ok(postcardService.getPostcardsByCursor(cursor, limit));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Bad Request", "message", e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/postcards/export")
+    public ResponseEntity<StreamingResponseBody> exportPostcards(
+            @RequestParam(value = "format", required = false) String format,
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
+        return export("postcards", format, principal, exportService::exportPostcards);
     }
     
     @DeleteMapping("/postcards/{id}")
@@ -277,45 +318,118 @@ public class PostcardController {
     }
     
     @GetMapping("/images/{username}/{subdir}/{filename:.+}")
-    public ResponseEntity<Resource> serveUserImageWithSubdir(
+    public void serveUserImageWithSubdir(
             @PathVariable String username,
             @PathVariable String subdir,
-            @PathVariable String filename) {
-        return serveImageInternal(username + "/" + subdir + "/" + filename);
+            @PathVariable String filename,
+            @RequestParam(value = "w", required = false) Integer width,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        serveImageInternal(username + "/" + subdir + "/" + filename, width, request, response);
     }
     
     @GetMapping("/images/{username}/{filename:.+}")
-    public ResponseEntity<Resource> serveUserImage(
+    public void serveUserImage(
             @PathVariable String username,
-            @PathVariable String filename) {
-        return serveImageInternal(username + "/" + filename);
+            @PathVariable String filename,
+            @RequestParam(value = "w", required = false) Integer width,
+            HttpServletRequest request,
+            HttpServletResponse response) {
+        serveImageInternal(username + "/" + filename, width, request, response);
     }
     
     @GetMapping("/images/{filename:.+}")
-    public ResponseEntity<Resource> serveImage(@PathVariable String filename) {
+    public void serveImage(
+            @PathVariable String filename,
+            @RequestParam(value = "w", required = false) Integer width,
+            HttpServletRequest request,
+            HttpServletResponse response) {
         // Handle both old format (filename only) and new format (username/filename)
-        return serveImageInternal(filename);
+        serveImageInternal(filename, width, request, response);
     }
     
-    private ResponseEntity<Resource> serveImageInternal(String filePath) {
+    private void serveImageInternal(String filePath, Integer width,
+                                    HttpServletRequest request, HttpServletResponse response) {
         try {
-            Path path = fileStorageService.getFilePath(filePath);
-            Resource resource = new UrlResource(path.toUri());
+            // Content-addressed files never change: the file name is the content hash, so it doubles as the ETag
+            boolean immutable = fileStorageService.isBlobPath(filePath);
+            
+            boolean cacheable = (width == null || width <= 0) && thumbnailCacheService.isCacheable(filePath);
+            if (cacheable) {
+                String name = Path.of(filePath).getFileName().toString();
+                String etag = immutable ? contentEtag(name) : null;
+                
+                // Hot thumbnails and avatars come from the off-heap cache
+                ThumbnailCacheService.CachedImage cached = thumbnailCacheService.get(filePath);
+                if (cached != null) {
+                    try (cached) {
+                        ImageResponseUtil.serveBuffer(request, response, name, cached.data(), cached.timestamp(), etag, immutable);
+                    }
+                    return;
+                }
+                
+                // Thumbnails are served straight from the mapped pack segment
+                ThumbnailPackService.PackedImage packed = thumbnailPackService.get(filePath);
+                if (packed != null) {
+                    thumbnailCacheService.put(filePath, packed.data(), packed.timestamp());
+                    ImageResponseUtil.serveBuffer(request, response, name, packed.data(), packed.timestamp(), etag, immutable);
+                    return;
+                }
+            }
             
-            if (resource.exists() && resource.isReadable()) {
-                return ResponseEntity.ok()
-                        .contentType(MediaType.IMAGE_JPEG)
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + path.getFileName() + "\"")
-                        .body(resource);
+            Path path;
+            if (width != null && width > 0) {
+                // Resized variant snapped to the width ladder, generated on first request
+                path = imageVariantService.getVariant(variantSource(filePath), width);
             } else {
-                return ResponseEntity.notFound().build();
+                path = fileStorageService.getFilePath(filePath);
+            }
+            if (path == null || !Files.isRegularFile(path) || !Files.isReadable(path)) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            
+            if (cacheable) {
+                thumbnailCacheService.put(filePath, path);
             }
+            String etag = immutable ? contentEtag(path.getFileName().toString()) : null;
+            ImageResponseUtil.serveFile(request, response, path, etag, immutable);
+        } catch (ImageDecodeLimiter.DecodeBusyException e) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
         } catch (Exception e) {
             log.error("Error serving image: {}", filePath, e);
-            return ResponseEntity.internalServerError().build();
+            if (!response.isCommitted()) {
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
         }
     }
     
+    /**
+     * A packed thumbnail has no loose file left to resize, so its variants are built from the
+     * medium version (or the original when there is none); any other path is its own source
+     */
+    private String variantSource(String filePath) {
+        Path loose = fileStorageService.getFilePath(filePath);
+        String name = loose.getFileName().toString();
+        String thumbTail = "_" + ImageResizeService.THUMB_SUFFIX;
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || !name.substring(0, dot).endsWith(thumbTail)
+                || Files.exists(loose) || !thumbnailPackService.contains(filePath)) {
+            return filePath;
+        }
+        Path original = loose.resolveSibling(name.substring(0, dot - thumbTail.length()) + name.substring(dot));
+        Path medium = ImageResizeService.versionPath(original, ImageResizeService.MEDIUM_SUFFIX);
+        Path source = Files.exists(medium) ? medium : original;
+        return Path.of(fileStorageService.getUploadDir()).relativize(source).toString().replace("\\", "/");
+    }
+    
+    // {sha256}_thumb.jpg -> "{sha256}_thumb"
+    private String contentEtag(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return "\"" + (dot > 0 ? filename.substring(0, dot) : filename) + "\"";
+    }
+    
     @PostMapping("/polish-text")
     public ResponseEntity<PolishTextResponse> polishText(@RequestBody PolishTextRequest request) {
         try {
@@ -341,9 +455,25 @@ public class PostcardController {
     }
     
     @GetMapping("/orders")
-    public ResponseEntity<List<OrderResponse>> getAllOrders() {
-        List<OrderResponse> orders = orderService.getAllOrders();
-        return ResponseEntity.ok(orders);
+    public ResponseEntity<?> getAllOrders(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        if (cursor == null && limit == null) {
+            return ResponseEntity.ok(orderService.getAllOrders());
+        }
+        try {
+            return ResponseEntity.ok(orderService.getOrdersByCursor(cursor, limit));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Bad Request", "message", e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/orders/export")
+    public ResponseEntity<StreamingResponseBody> exportOrders(
+            @RequestParam(value = "format", required = false) String format,
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
+        return export("orders", format, principal, exportService::exportOrders);
     }
     
     @GetMapping("/orders/{id}")
@@ -361,7 +491,7 @@ public class PostcardController {
     public ResponseEntity<DownloadResponse> recordDownload(@RequestBody DownloadRequest request) {
         try {
             DownloadResponse response = downloadService.recordDownload(request);
-            return ResponseEntity.ok(response);
+            return ResponseEntity.accepted().body(response);
         } catch (Exception e) {
             log.error("Error recording download", e);
             return ResponseEntity.internalServerError().build();
@@ -369,8 +499,108 @@ public class PostcardController {
     }
     
     @GetMapping("/downloads")
-    public ResponseEntity<List<DownloadResponse>> getAllDownloads() {
-        List<DownloadResponse> downloads = downloadService.getAllDownloads();
-        return ResponseEntity.ok(downloads);
+    public ResponseEntity<?> getAllDownloads(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit) {
+        if (cursor == null && limit == null) {
+            return ResponseEntity.ok(downloadService.getAllDownloads());
+        }
+        try {
+            return ResponseEntity.ok(downloadService.getDownloadsByCursor(cursor, limit));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Bad Request", "message", e.getMessage()));
+        }
+    }
+    
+    @GetMapping("/downloads/export")
+    public ResponseEntity<StreamingResponseBody> exportDownloads(
+            @RequestParam(value = "format", required = false) String format,
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
+        return export("downloads", format, principal, exportService::exportDownloads);
+    }
+    
+    @GetMapping("/downloads/top-images")
+    public ResponseEntity<List<DownloadCountRow>> getTopImages(
+            @RequestParam(value = "days", defaultValue = "7") int days,
+            @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        return ResponseEntity.ok(downloadRollupService.getTopImages(days, Math.min(Math.max(limit, 1), 100)));
+    }
+    
+    @GetMapping("/downloads/template-trends")
+    public ResponseEntity<?> getTemplateTrends(
+            @RequestParam(value = "granularity", defaultValue = "day") String granularity,
+            @RequestParam(value = "days", defaultValue = "30") int days) {
+        try {
+            return ResponseEntity.ok(downloadRollupService.getTemplateTrends(granularity, days));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Bad Request", "message", e.getMessage()));
+        }
+    }
+    
+    @PostMapping("/downloads/rollups/rebuild")
+    public ResponseEntity<?> rebuildDownloadRollups(
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
+        if (principal == null) {
+            return ResponseEntity.status(401)
+                    .body(Map.of("error", "Unauthorized", "message", "Valid JWT token required"));
+        }
+        if (!adminUsers.isAdmin(principal)) {
+            log.warn("Rollup rebuild refused for non-admin user: {}", principal.username());
+            return ResponseEntity.status(403)
+                    .body(Map.of("error", "Forbidden", "message", "Admin access required"));
+        }
+        try {
+            int rows = downloadRollupService.rebuild(from);
+            return ResponseEntity.ok(Map.of("success", true, "rows", rows));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Bad Request", "message", e.getMessage()));
+        }
+    }
+    
+    /**
+     * Stream a full-table export (NDJSON by default, or CSV) as an attachment; rows are written
+     * while they are read, on the async request thread. The declared StreamingResponseBody body
+     * type is what routes the response to Spring's streaming handler, and it leaves no room for
+     * the usual JSON error body, so refusals are status-only.
+     * Admins only, and each export holds a database connection while it runs, so only a few run at once.
+     */
+    private ResponseEntity<StreamingResponseBody> export(String table, String format, AuthenticatedUser principal,
+                                                         BiFunction<OutputStream, ExportService.Format, Long> exporter) {
+        if (principal == null) {
+            return ResponseEntity.status(401).build();
+        }
+        if (!adminUsers.isAdmin(principal)) {
+            log.warn("{} export refused for non-admin user: {}", table, principal.username());
+            return ResponseEntity.status(403).build();
+        }
+        ExportService.Format exportFormat;
+        try {
+            exportFormat = ExportService.Format.fromString(format);
+        } catch (RuntimeException e) {
+            log.warn("Rejected {} export: {}", table, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        if (!exportService.tryAcquireSlot()) {
+            log.warn("{} export refused: all export slots busy", table);
+            return ResponseEntity.status(503)
+                    .header(HttpHeaders.RETRY_AFTER, "60")
+                    .build();
+        }
+        StreamingResponseBody body = out -> {
+            try {
+                exporter.apply(out, exportFormat);
+            } finally {
+                exportService.releaseSlot();
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(exportFormat.getContentType() + ";charset=UTF-8"))
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + table + "." + exportFormat.getExtension() + "\"")
+                .body(body);
     }
 }
@@ -2,16 +2,18 @@ package world.isnap.filmpostcard.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import world.isnap.filmpostcard.dto.*;
+import world.isnap.filmpostcard.security.AuthenticatedUser;
 import world.isnap.filmpostcard.service.AlbumService;
+import world.isnap.filmpostcard.service.ImageDecodeLimiter;
 import world.isnap.filmpostcard.service.PhotoService;
 import world.isnap.filmpostcard.service.PostcardService;
 import world.isnap.filmpostcard.service.StorageQuotaService;
 import world.isnap.filmpostcard.service.UserService;
-import world.isnap.filmpostcard.util.JwtUtil;
 
 import java.io.IOException;
 import java.util.List;
@@ -27,7 +29,6 @@ public class UserController {
     private final UserService userService;
     private final PostcardService postcardService;
     private final PhotoService photoService;
-    private final JwtUtil jwtUtil;
     private final StorageQuotaService storageQuotaService;
     private final AlbumService albumService;
     
@@ -77,10 +78,10 @@ public class UserController {
     public ResponseEntity<?> updateProfile(
             @PathVariable String username,
             @RequestBody UpdateUserProfileRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 return ResponseEntity.status(403)
                         .body(Map.of("error", "Forbidden", "message", "You can only update your own profile"));
@@ -99,19 +100,19 @@ public class UserController {
     public ResponseEntity<?> patchProfile(
             @PathVariable String username,
             @RequestBody UpdateUserProfileRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         // PATCH works the same as PUT for this endpoint (partial updates are already supported)
-        return updateProfile(username, request, authHeader);
+        return updateProfile(username, request, principal);
     }
     
     @PostMapping("/{username}/avatar")
     public ResponseEntity<?> uploadAvatar(
             @PathVariable String username,
             @RequestParam("avatar") MultipartFile avatar,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 return ResponseEntity.status(403)
                         .body(Map.of("error", "Forbidden", "message", "You can only upload your own avatar"));
@@ -119,6 +120,11 @@ public class UserController {
             
             UserProfileResponse response = userService.updateAvatar(username, avatar);
             return ResponseEntity.ok(response);
+        } catch (ImageDecodeLimiter.DecodeBusyException e) {
+            log.warn("Avatar upload rejected for user {}: {}", username, e.getMessage());
+            return ResponseEntity.status(503)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(Map.of("error", "Service Unavailable", "message", e.getMessage()));
         } catch (IOException e) {
             log.error("Error uploading avatar", e);
             return ResponseEntity.internalServerError()
@@ -146,8 +152,14 @@ public class UserController {
     public ResponseEntity<?> getUserPhotos(
             @PathVariable String username,
             @RequestParam(value = "page", required = false) Integer page,
-            @RequestParam(value = "pageSize", required = false) Integer pageSize) {
+            @RequestParam(value = "pageSize", required = false) Integer pageSize,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limit", required = false) Integer limit) {
         try {
+            // Cursor (keyset) pagination for infinite scroll
+            if (cursor != null || limit != null) {
+                return ResponseEntity.ok(photoService.getUserPhotosByCursor(username, cursor, limit));
+            }
             // If pagination parameters provided, use pagination
             if (page != null || pageSize != null) {
                 int p = (page != null) ? page : 1;
@@ -155,9 +167,8 @@ public class UserController {
                 PagedPhotoResponse response = photoService.getUserPhotosWithPagination(username, p, ps);
                 return ResponseEntity.ok(response);
             } else {
-                // Legacy support: return all photos without pagination
-                PhotoListResponse response = photoService.getUserPhotos(username);
-                return ResponseEntity.ok(response);
+                // Legacy support: return all photos without pagination (streamed while serializing)
+                return ResponseEntity.ok(photoService.getUserPhotos(username));
             }
         } catch (RuntimeException e) {
             log.error("Error getting user photos: {}", e.getMessage());
@@ -169,7 +180,7 @@ public class UserController {
     public ResponseEntity<?> uploadPhoto(
             @PathVariable String username,
             @RequestBody PhotoUploadRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
             // Log the incoming request
             log.info("POST /{}/photos - Request body: {}", username, request);
@@ -179,7 +190,7 @@ public class UserController {
                     request.getTakenAt(), request.getAlbumId());
             
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 return ResponseEntity.status(403)
                         .body(Map.of("error", "Forbidden", "message", "You can only upload photos to your own profile"));
@@ -199,10 +210,10 @@ public class UserController {
     @GetMapping("/{username}/quota")
     public ResponseEntity<?> getStorageQuota(
             @PathVariable String username,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 return ResponseEntity.status(403)
                         .body(Map.of("error", "Forbidden", "message", "You can only view your own quota"));
@@ -222,13 +233,12 @@ public class UserController {
     public ResponseEntity<?> deletePhoto(
             @PathVariable String username,
             @PathVariable String photoId,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
-            log.info("DELETE /{}/photos/{} - Authorization header present: {}", 
-                    username, photoId, authHeader != null && !authHeader.isEmpty());
+            log.info("DELETE /{}/photos/{} - authenticated: {}", username, photoId, principal != null);
             
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 log.error("Authentication failed for DELETE /{}/photos/{}", username, photoId);
                 return ResponseEntity.status(403)
@@ -245,15 +255,37 @@ public class UserController {
         }
     }
     
+    @PostMapping("/{username}/photos/move")
+    public ResponseEntity<?> movePhotos(
+            @PathVariable String username,
+            @RequestBody MovePhotosRequest request,
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
+        try {
+            // Verify JWT and match username
+            String authenticatedUser = verifyUser(principal, username);
+            if (authenticatedUser == null) {
+                return ResponseEntity.status(403)
+                        .body(Map.of("error", "Forbidden", "message", "You can only move your own photos"));
+            }
+            
+            int moved = photoService.movePhotos(username, request);
+            return ResponseEntity.ok(Map.of("success", true, "moved", moved));
+        } catch (RuntimeException e) {
+            log.error("Error moving photos: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Bad Request", "message", e.getMessage()));
+        }
+    }
+    
     @PatchMapping("/{username}/photos/{photoId}")
     public ResponseEntity<?> updatePhoto(
             @PathVariable String username,
             @PathVariable String photoId,
             @RequestBody UpdatePhotoRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 return ResponseEntity.status(403)
                         .body(Map.of("error", "Forbidden", "message", "You can only update your own photos"));
@@ -286,10 +318,10 @@ public class UserController {
     public ResponseEntity<?> createAlbum(
             @PathVariable String username,
             @RequestBody AlbumRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 return ResponseEntity.status(403)
                         .body(Map.of("error", "Forbidden", "message", "You can only create albums for your own profile"));
@@ -309,10 +341,10 @@ public class UserController {
             @PathVariable String username,
             @PathVariable String albumId,
             @RequestBody AlbumRequest request,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 return ResponseEntity.status(403)
                         .body(Map.of("error", "Forbidden", "message", "You can only update your own albums"));
@@ -331,10 +363,10 @@ public class UserController {
     public ResponseEntity<?> deleteAlbum(
             @PathVariable String username,
             @PathVariable String albumId,
-            @RequestHeader(value = "Authorization", required = false) String authHeader) {
+            @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false) AuthenticatedUser principal) {
         try {
             // Verify JWT and match username
-            String authenticatedUser = extractAndVerifyUser(authHeader, username);
+            String authenticatedUser = verifyUser(principal, username);
             if (authenticatedUser == null) {
                 return ResponseEntity.status(403)
                         .body(Map.of("error", "Forbidden", "message", "You can only delete your own albums"));
@@ -350,43 +382,24 @@ public class UserController {
     }
     
     /**
-     * Extract username from JWT and verify it matches the path username
-     * @param authHeader Authorization header (Bearer token)
+     * Verify the authenticated caller matches the path username
+     * @param principal Caller resolved from the JWT by JwtAuthenticationFilter (null if missing or invalid)
      * @param pathUsername Username from URL path
-     * @return authenticated username if valid and matches, null otherwise
+     * @return authenticated username if present and matches, null otherwise
      */
-    private String extractAndVerifyUser(String authHeader, String pathUsername) {
-        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
-            log.warn("Missing or invalid Authorization header for user: {}", pathUsername);
-            return null;
-        }
-        
-        String token = authHeader.substring(7); // Remove "Bearer " prefix
-        log.debug("Validating JWT token for user: {}", pathUsername);
-        
-        if (!jwtUtil.validateToken(token)) {
-            log.warn("Invalid JWT token for user: {}", pathUsername);
-            return null;
-        }
-        
-        if (jwtUtil.isTokenExpired(token)) {
-            log.warn("Expired JWT token for user: {}", pathUsername);
-            return null;
-        }
-        
-        String authenticatedUsername = jwtUtil.getUsernameFromToken(token);
-        if (authenticatedUsername == null) {
-            log.warn("Unable to extract username from token for path user: {}", pathUsername);
+    private String verifyUser(AuthenticatedUser principal, String pathUsername) {
+        if (principal == null) {
+            log.warn("Missing or invalid JWT token for user: {}", pathUsername);
             return null;
         }
         
         // Verify the authenticated user matches the path username
-        if (!authenticatedUsername.equals(pathUsername)) {
-            log.warn("Authenticated user '{}' does not match path username '{}'", authenticatedUsername, pathUsername);
+        if (!principal.username().equals(pathUsername)) {
+            log.warn("Authenticated user '{}' does not match path username '{}'", principal.username(), pathUsername);
             return null;
         }
         
-        log.debug("Successfully authenticated and authorized user: {}", authenticatedUsername);
-        return authenticatedUsername;
+        log.debug("Successfully authenticated and authorized user: {}", principal.username());
+        return principal.username();
     }
 }
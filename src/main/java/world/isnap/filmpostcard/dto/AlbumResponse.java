@@ -14,6 +14,7 @@ public class AlbumResponse {
     private String name;
     private String description;
     private String coverPhoto;
+    private String coverPhotoThumb;  // 封面缩略图, 列表页用
     private Integer photoCount;
     private String createdAt;
     private String updatedAt;
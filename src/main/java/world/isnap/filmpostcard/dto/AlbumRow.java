@@ -0,0 +1,18 @@
+package world.isnap.filmpostcard.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read-only album listing row with its photo count and the thumbnail of its cover photo
+ * (null when the cover isn't one of the album's photos or has no thumbnail yet)
+ */
+public record AlbumRow(
+        Long id,
+        String name,
+        String description,
+        String coverPhoto,
+        Long photoCount,
+        String coverThumb,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt) {
+}
@@ -0,0 +1,19 @@
+package world.isnap.filmpostcard.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageResponse<T> {
+    private List<T> items;
+    private String nextCursor;   // 传给下一次请求的 cursor 参数; null 表示没有更多
+    private boolean hasNext;
+    private int limit;
+}
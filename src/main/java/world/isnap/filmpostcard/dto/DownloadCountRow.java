@@ -0,0 +1,7 @@
+package world.isnap.filmpostcard.dto;
+
+/**
+ * Download total for one image or template over a window
+ */
+public record DownloadCountRow(String key, Long downloads) {
+}
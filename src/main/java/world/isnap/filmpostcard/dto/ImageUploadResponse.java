@@ -14,6 +14,7 @@ public class ImageUploadResponse {
     private String url;           // Original image URL
     private String urlThumb;      // Thumbnail URL
     private String urlMedium;     // Medium preview URL
+    private String derivativeStatus; // pending/ready/failed for photos, null otherwise
     private String filename;
     private Long fileSize;
 }
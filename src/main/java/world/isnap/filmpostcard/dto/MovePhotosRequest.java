@@ -11,7 +11,7 @@ import java.util.List;
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-public class PhotoListResponse {
-    private List<PhotoResponse> photos;
-    private Integer total;
+public class MovePhotosRequest {
+    private List<String> photoIds;
+    private String albumId; // null or empty means remove from album
 }
@@ -16,6 +16,7 @@ public class PhotoResponse {
     private String imageUrl;  // Original image
     private String imageUrlThumb;  // Thumbnail version
     private String imageUrlMedium;  // Medium version
+    private String derivativeStatus;  // pending, ready, failed
     private String title;
     private String description;
     private String location;
@@ -0,0 +1,24 @@
+package world.isnap.filmpostcard.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Read-only photo listing row: exactly the PhotoResponse columns, with album_id read from the
+ * foreign key so the Album proxy is never initialized
+ */
+public record PhotoRow(
+        Long id,
+        String imageUrl,
+        String imageUrlThumb,
+        String imageUrlMedium,
+        String derivativeStatus,
+        String title,
+        String description,
+        String location,
+        String camera,
+        String lens,
+        String settings,
+        LocalDateTime takenAt,
+        LocalDateTime createdAt,
+        Long albumId) {
+}
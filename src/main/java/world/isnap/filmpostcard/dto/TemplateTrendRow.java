@@ -0,0 +1,9 @@
+package world.isnap.filmpostcard.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Downloads of one template type in one hour/day bucket
+ */
+public record TemplateTrendRow(LocalDateTime bucketStart, String templateType, Long downloads) {
+}
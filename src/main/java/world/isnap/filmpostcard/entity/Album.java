@@ -17,7 +17,8 @@ import java.time.LocalDateTime;
 public class Album {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "albums_seq")
+    @SequenceGenerator(name = "albums_seq", sequenceName = "albums_seq", allocationSize = 50)
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
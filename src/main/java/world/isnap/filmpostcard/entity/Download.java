@@ -9,7 +9,8 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "downloads")
+@Table(name = "downloads",
+       indexes = @Index(name = "idx_downloads_timestamp", columnList = "download_timestamp, id"))
 @Data
 @Builder
 @NoArgsConstructor
@@ -17,7 +18,8 @@ import java.time.LocalDateTime;
 public class Download {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "downloads_seq")
+    @SequenceGenerator(name = "downloads_seq", sequenceName = "downloads_seq", allocationSize = 50)
     private Long id;
     
     @Column(name = "image_id")
@@ -0,0 +1,55 @@
+package world.isnap.filmpostcard.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Pre-aggregated download count for one (granularity, dimension, value, bucket).
+ * Maintained incrementally by the ingestion flush and rebuildable from the raw downloads table.
+ */
+@Entity
+@Table(name = "download_rollups",
+       indexes = @Index(name = "idx_download_rollups_bucket", columnList = "granularity, dimension, bucket_start"))
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class DownloadRollup {
+    
+    public static final String GRANULARITY_HOUR = "hour";
+    public static final String GRANULARITY_DAY = "day";
+    public static final String DIMENSION_IMAGE = "image";
+    public static final String DIMENSION_TEMPLATE = "template";
+    public static final String UNKNOWN = "unknown";
+    
+    @EmbeddedId
+    private Key id;
+    
+    @Column(name = "download_count", nullable = false)
+    private Long downloadCount;
+    
+    @Embeddable
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        
+        @Column(name = "granularity", length = 8)
+        private String granularity; // hour, day
+        
+        @Column(name = "dimension", length = 16)
+        private String dimension; // image, template
+        
+        @Column(name = "dimension_value")
+        private String dimensionValue; // image id or template type
+        
+        @Column(name = "bucket_start")
+        private LocalDateTime bucketStart;
+    }
+}
@@ -0,0 +1,42 @@
+package world.isnap.filmpostcard.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Content-addressed image file shared by every Photo, Postcard and avatar that references the same bytes
+ */
+@Entity
+@Table(name = "image_blobs")
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageBlob {
+    
+    @Id
+    @Column(name = "sha256", length = 64)
+    private String sha256;
+    
+    @Column(name = "path", nullable = false)
+    private String path;  // Relative to upload dir: blobs/ab/{sha256}.jpg
+    
+    @Column(name = "file_size", nullable = false)
+    private Long fileSize;
+    
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount;  // Number of photo/postcard/avatar references
+    
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+    
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
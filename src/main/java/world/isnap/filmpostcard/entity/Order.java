@@ -9,7 +9,8 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "orders")
+@Table(name = "orders",
+       indexes = @Index(name = "idx_orders_created", columnList = "created_at, id"))
 @Data
 @Builder
 @NoArgsConstructor
@@ -17,7 +18,8 @@ import java.time.LocalDateTime;
 public class Order {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+    @SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = 50)
     private Long id;
     
     @Column(name = "postcard_id", nullable = false)
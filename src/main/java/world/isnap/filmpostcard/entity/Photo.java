@@ -10,7 +10,8 @@ import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "photos", 
-       uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "image_url"}))
+       uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "image_url"}),
+       indexes = @Index(name = "idx_photos_user_created", columnList = "user_id, created_at, id"))
 @Data
 @Builder
 @NoArgsConstructor
@@ -18,7 +19,8 @@ import java.time.LocalDateTime;
 public class Photo {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "photos_seq")
+    @SequenceGenerator(name = "photos_seq", sequenceName = "photos_seq", allocationSize = 50)
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
@@ -38,6 +40,9 @@ public class Photo {
     @Column(name = "image_url_medium")
     private String imageUrlMedium;  // Medium preview (1280px width, ~200-500KB)
     
+    @Column(name = "derivative_status")
+    private String derivativeStatus;  // pending, ready, failed (thumb/medium generation)
+    
     @Column(name = "title")
     private String title;
     
@@ -9,7 +9,8 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "postcards")
+@Table(name = "postcards",
+       indexes = @Index(name = "idx_postcards_created", columnList = "created_at, id"))
 @Data
 @Builder
 @NoArgsConstructor
@@ -17,7 +18,8 @@ import java.time.LocalDateTime;
 public class Postcard {
     
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "postcards_seq")
+    @SequenceGenerator(name = "postcards_seq", sequenceName = "postcards_seq", allocationSize = 50)
     private Long id;
     
     @ManyToOne(fetch = FetchType.LAZY)
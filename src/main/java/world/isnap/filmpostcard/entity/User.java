@@ -62,9 +62,21 @@ public class User {
     @Column(name = "user_tier")
     private String userTier; // FREE, BASIC, PRO, ENTERPRISE
     
-    @Column(name = "storage_used")
+    // Changed only through reserve/release UPDATEs in UserRepository (see StorageQuotaService)
+    @Column(name = "storage_used", updatable = false)
     private Long storageUsed; // Bytes used
     
+    // Denormalized counters - only changed by relative UPDATEs in UserRepository, never by
+    // entity saves, so a stale copy being merged can't overwrite a concurrent increment
+    @Column(name = "photo_count", updatable = false, columnDefinition = "bigint default 0")
+    private Long photoCount;
+    
+    @Column(name = "design_count", updatable = false, columnDefinition = "bigint default 0")
+    private Long designCount;
+    
+    @Column(name = "album_count", updatable = false, columnDefinition = "bigint default 0")
+    private Long albumCount;
+    
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
     
@@ -84,6 +96,15 @@ public class User {
         if (storageUsed == null) {
             storageUsed = 0L;
         }
+        if (photoCount == null) {
+            photoCount = 0L;
+        }
+        if (designCount == null) {
+            designCount = 0L;
+        }
+        if (albumCount == null) {
+            albumCount = 0L;
+        }
     }
     
     @PreUpdate
@@ -1,7 +1,10 @@
 package world.isnap.filmpostcard.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import world.isnap.filmpostcard.dto.AlbumRow;
 import world.isnap.filmpostcard.entity.Album;
 import world.isnap.filmpostcard.entity.User;
 
@@ -13,4 +16,16 @@ public interface AlbumRepository extends JpaRepository<Album, Long> {
     List<Album> findByUserOrderByCreatedAtDesc(User user);
     Optional<Album> findByIdAndUser(Long id, User user);
     Long countByUser(User user);
+    
+    // Whole album list in one grouped statement: photo counts plus the cover's thumbnail,
+    // resolved from the album's own photo rows (no per-album COUNT or cover lookup)
+    @Query("SELECT new world.isnap.filmpostcard.dto.AlbumRow(a.id, a.name, a.description, a.coverPhoto, " +
+            "COUNT(p.id), " +
+            "MAX(CASE WHEN p.imageUrl = a.coverPhoto OR p.imageUrlThumb = a.coverPhoto THEN p.imageUrlThumb END), " +
+            "a.createdAt, a.updatedAt) " +
+            "FROM Album a LEFT JOIN Photo p ON p.album.id = a.id " +
+            "WHERE a.user.id = :userId " +
+            "GROUP BY a.id, a.name, a.description, a.coverPhoto, a.createdAt, a.updatedAt " +
+            "ORDER BY a.createdAt DESC")
+    List<AlbumRow> findRowsByUser(@Param("userId") Long userId);
 }
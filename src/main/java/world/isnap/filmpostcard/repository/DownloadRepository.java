@@ -1,13 +1,36 @@
 package world.isnap.filmpostcard.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import world.isnap.filmpostcard.entity.Download;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface DownloadRepository extends JpaRepository<Download, Long> {
     List<Download> findAllByOrderByDownloadTimestampDesc();
     List<Download> findByImageId(String imageId);
+    
+    // Keyset pages in download order (download_timestamp, id), served by idx_downloads_timestamp
+    @Query(value = "SELECT * FROM downloads ORDER BY download_timestamp DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<Download> findFirstPage(@Param("limit") int limit);
+    
+    @Query(value = "SELECT * FROM downloads WHERE (download_timestamp, id) < (:after, :afterId) " +
+            "ORDER BY download_timestamp DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<Download> findPageAfter(@Param("after") LocalDateTime after, @Param("afterId") Long afterId, @Param("limit") int limit);
+    
+    // Full-table export in download order, fetched in chunks instead of materialized
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT d FROM Download d ORDER BY d.downloadTimestamp DESC, d.id DESC")
+    Stream<Download> streamAllForExport();
 }
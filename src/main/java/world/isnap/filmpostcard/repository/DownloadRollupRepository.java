@@ -0,0 +1,31 @@
+package world.isnap.filmpostcard.repository;
+
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import world.isnap.filmpostcard.dto.DownloadCountRow;
+import world.isnap.filmpostcard.dto.TemplateTrendRow;
+import world.isnap.filmpostcard.entity.DownloadRollup;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface DownloadRollupRepository extends JpaRepository<DownloadRollup, DownloadRollup.Key> {
+    
+    // Reads touch only the rollup buckets in the window, never raw download rows
+    @Query("SELECT new world.isnap.filmpostcard.dto.DownloadCountRow(r.id.dimensionValue, SUM(r.downloadCount)) " +
+            "FROM DownloadRollup r WHERE r.id.granularity = :granularity AND r.id.dimension = :dimension " +
+            "AND r.id.bucketStart >= :from " +
+            "GROUP BY r.id.dimensionValue ORDER BY SUM(r.downloadCount) DESC")
+    List<DownloadCountRow> findTop(@Param("granularity") String granularity, @Param("dimension") String dimension,
+                                   @Param("from") LocalDateTime from, Limit limit);
+    
+    @Query("SELECT new world.isnap.filmpostcard.dto.TemplateTrendRow(r.id.bucketStart, r.id.dimensionValue, r.downloadCount) " +
+            "FROM DownloadRollup r WHERE r.id.granularity = :granularity " +
+            "AND r.id.dimension = '" + DownloadRollup.DIMENSION_TEMPLATE + "' AND r.id.bucketStart >= :from " +
+            "ORDER BY r.id.bucketStart, r.id.dimensionValue")
+    List<TemplateTrendRow> findTemplateTrend(@Param("granularity") String granularity, @Param("from") LocalDateTime from);
+}
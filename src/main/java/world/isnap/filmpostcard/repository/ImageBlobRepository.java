@@ -0,0 +1,34 @@
+package world.isnap.filmpostcard.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import world.isnap.filmpostcard.entity.ImageBlob;
+
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+    
+    // Register a reference, creating the blob row on first use; returns the new ref count.
+    // Commits on its own so concurrent uploads of the same bytes never see a half-registered blob.
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    @Query(value = "INSERT INTO image_blobs (sha256, path, file_size, ref_count, created_at) " +
+            "VALUES (:sha256, :path, :fileSize, 1, now()) " +
+            "ON CONFLICT (sha256) DO UPDATE SET ref_count = image_blobs.ref_count + 1 " +
+            "RETURNING ref_count", nativeQuery = true)
+    int acquireReference(@Param("sha256") String sha256, @Param("path") String path, @Param("fileSize") long fileSize);
+    
+    // Drop a reference; runs in the caller's transaction so it rolls back with the owning delete
+    @Transactional
+    @Query(value = "UPDATE image_blobs SET ref_count = ref_count - 1 WHERE sha256 = :sha256 RETURNING ref_count",
+            nativeQuery = true)
+    Integer releaseReference(@Param("sha256") String sha256);
+    
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM ImageBlob b WHERE b.sha256 = :sha256 AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("sha256") String sha256);
+}
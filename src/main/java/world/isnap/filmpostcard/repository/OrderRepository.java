@@ -1,10 +1,17 @@
 package world.isnap.filmpostcard.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import world.isnap.filmpostcard.entity.Order;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface OrderRepository extends JpaRepository<Order, Long> {
@@ -12,4 +19,20 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
     List<Order> findAllByOrderByCreatedAtDesc();
     
     List<Order> findByPostcardIdOrderByCreatedAtDesc(Long postcardId);
+    
+    // Keyset pages, newest first, served by idx_orders_created
+    @Query(value = "SELECT * FROM orders ORDER BY created_at DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<Order> findFirstPage(@Param("limit") int limit);
+    
+    @Query(value = "SELECT * FROM orders WHERE (created_at, id) < (:after, :afterId) " +
+            "ORDER BY created_at DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<Order> findPageAfter(@Param("after") LocalDateTime after, @Param("afterId") Long afterId, @Param("limit") int limit);
+    
+    // Server-side cursor for the export; consume inside a read-only transaction and close the stream
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT o FROM Order o ORDER BY o.createdAt DESC, o.id DESC")
+    Stream<Order> streamAllForExport();
 }
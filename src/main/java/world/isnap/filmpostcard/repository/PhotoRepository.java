@@ -1,15 +1,27 @@
 package world.isnap.filmpostcard.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import world.isnap.filmpostcard.dto.PhotoRow;
 import world.isnap.filmpostcard.entity.Album;
 import world.isnap.filmpostcard.entity.Photo;
 import world.isnap.filmpostcard.entity.User;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface PhotoRepository extends JpaRepository<Photo, Long> {
@@ -19,4 +31,66 @@ public interface PhotoRepository extends JpaRepository<Photo, Long> {
     Long countByUser(User user);
     Long countByAlbum(Album album);
     Optional<Photo> findByUserAndImageUrl(User user, String imageUrl);
+    
+    // Listing projections - response columns only, no managed entities or dirty-check snapshots.
+    // p.album.id reads the album_id foreign key directly, without joining albums.
+    String PHOTO_ROW = "SELECT new world.isnap.filmpostcard.dto.PhotoRow(p.id, p.imageUrl, p.imageUrlThumb, " +
+            "p.imageUrlMedium, p.derivativeStatus, p.title, p.description, p.location, p.camera, p.lens, " +
+            "p.settings, p.takenAt, p.createdAt, p.album.id) FROM Photo p ";
+    
+    @Query(PHOTO_ROW + "WHERE p.user.id = :userId ORDER BY p.createdAt DESC, p.id DESC")
+    List<PhotoRow> findRowsByUser(@Param("userId") Long userId);
+    
+    @Query(value = PHOTO_ROW + "WHERE p.user.id = :userId ORDER BY p.createdAt DESC, p.id DESC",
+            countQuery = "SELECT COUNT(p) FROM Photo p WHERE p.user.id = :userId")
+    Page<PhotoRow> findRowsByUser(@Param("userId") Long userId, Pageable pageable);
+    
+    // Same rows through a server-side cursor, for the streamed legacy listing (open transaction required)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "200"))
+    @Query(PHOTO_ROW + "WHERE p.user.id = :userId ORDER BY p.createdAt DESC, p.id DESC")
+    Stream<PhotoRow> streamRowsByUser(@Param("userId") Long userId);
+    
+    // Keyset pages, newest first (callers pass limit + 1 to detect a next page). The row-value
+    // comparison seeks straight into idx_photos_user_created; no OFFSET scan and no COUNT query.
+    @Query(PHOTO_ROW + "WHERE p.user.id = :userId ORDER BY p.createdAt DESC, p.id DESC")
+    List<PhotoRow> findFirstPageByUser(@Param("userId") Long userId, Limit limit);
+    
+    @Query(PHOTO_ROW + "WHERE p.user.id = :userId AND (p.createdAt, p.id) < (:after, :afterId) " +
+            "ORDER BY p.createdAt DESC, p.id DESC")
+    List<PhotoRow> findPageByUserAfter(@Param("userId") Long userId, @Param("after") LocalDateTime after,
+                                       @Param("afterId") Long afterId, Limit limit);
+    
+    // Set-based album membership changes - one UPDATE for any number of photos, no entity loads.
+    // Moves are scoped to the owner's photos, so ids belonging to someone else never match.
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.album = null, p.updatedAt = :now WHERE p.album.id = :albumId")
+    int detachAllFromAlbum(@Param("albumId") Long albumId, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.album = :album, p.updatedAt = :now WHERE p.user.id = :userId AND p.id IN :ids")
+    int moveToAlbum(@Param("userId") Long userId, @Param("ids") Collection<Long> ids,
+                    @Param("album") Album album, @Param("now") LocalDateTime now);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.album = null, p.updatedAt = :now WHERE p.user.id = :userId AND p.id IN :ids")
+    int removeFromAlbum(@Param("userId") Long userId, @Param("ids") Collection<Long> ids,
+                        @Param("now") LocalDateTime now);
+    
+    // Photos whose derivative job was rejected by a full queue, oldest first
+    List<Photo> findByDerivativeStatusOrderByIdAsc(String derivativeStatus, Limit limit);
+    
+    // Derivative (thumb/medium) pipeline updates - single-column writes, no entity load
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.derivativeStatus = :status WHERE p.id = :id")
+    int updateDerivativeStatus(@Param("id") Long id, @Param("status") String status);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE Photo p SET p.imageUrlThumb = :thumb, p.imageUrlMedium = :medium, p.derivativeStatus = :status WHERE p.id = :id")
+    int updateDerivatives(@Param("id") Long id, @Param("thumb") String imageUrlThumb,
+                          @Param("medium") String imageUrlMedium, @Param("status") String status);
 }
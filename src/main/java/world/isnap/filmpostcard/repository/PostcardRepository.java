@@ -1,11 +1,18 @@
 package world.isnap.filmpostcard.repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import world.isnap.filmpostcard.entity.Postcard;
 import world.isnap.filmpostcard.entity.User;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface PostcardRepository extends JpaRepository<Postcard, Long> {
@@ -13,4 +20,20 @@ public interface PostcardRepository extends JpaRepository<Postcard, Long> {
     List<Postcard> findAllByOrderByCreatedAtDesc();
     List<Postcard> findByUserOrderByCreatedAtDesc(User user);
     Long countByUser(User user);
+    
+    // Keyset pages, newest first, served by idx_postcards_created
+    @Query(value = "SELECT * FROM postcards ORDER BY created_at DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<Postcard> findFirstPage(@Param("limit") int limit);
+    
+    @Query(value = "SELECT * FROM postcards WHERE (created_at, id) < (:after, :afterId) " +
+            "ORDER BY created_at DESC, id DESC LIMIT :limit", nativeQuery = true)
+    List<Postcard> findPageAfter(@Param("after") LocalDateTime after, @Param("afterId") Long afterId, @Param("limit") int limit);
+    
+    // Export cursor: rows arrive fetch-size at a time from a server-side cursor (needs an open transaction)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    @Query("SELECT p FROM Postcard p ORDER BY p.createdAt DESC, p.id DESC")
+    Stream<Postcard> streamAllForExport();
 }
@@ -1,9 +1,15 @@
 package world.isnap.filmpostcard.repository;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import world.isnap.filmpostcard.entity.User;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -12,4 +18,62 @@ public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByEmail(String email);
     boolean existsByUsername(String username);
     boolean existsByEmail(String email);
+    
+    // Counter updates are relative and run in the caller's transaction, so they commit or roll
+    // back together with the insert/delete they count
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.photoCount = COALESCE(u.photoCount, 0) + :delta WHERE u.id = :id")
+    int adjustPhotoCount(@Param("id") Long id, @Param("delta") long delta);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.designCount = COALESCE(u.designCount, 0) + :delta WHERE u.id = :id")
+    int adjustDesignCount(@Param("id") Long id, @Param("delta") long delta);
+    
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.albumCount = COALESCE(u.albumCount, 0) + :delta WHERE u.id = :id")
+    int adjustAlbumCount(@Param("id") Long id, @Param("delta") long delta);
+    
+    // Take bytes from the quota only if the result stays within the limit; 0 rows means over quota.
+    // The check and the increment are one statement, so concurrent uploads can't both pass.
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.storageUsed = COALESCE(u.storageUsed, 0) + :bytes " +
+            "WHERE u.id = :id AND COALESCE(u.storageUsed, 0) + :bytes <= :limit")
+    int reserveStorage(@Param("id") Long id, @Param("bytes") long bytes, @Param("limit") long limit);
+    
+    // Unconditional relative change (release or size correction), clamped at zero
+    @Modifying
+    @Transactional
+    @Query("UPDATE User u SET u.storageUsed = CASE WHEN COALESCE(u.storageUsed, 0) + :delta < 0 THEN 0 " +
+            "ELSE COALESCE(u.storageUsed, 0) + :delta END WHERE u.id = :id")
+    int adjustStorage(@Param("id") Long id, @Param("delta") long delta);
+    
+    @Query("SELECT COALESCE(u.storageUsed, 0) FROM User u WHERE u.id = :id")
+    long findStorageUsed(@Param("id") Long id);
+    
+    // Counter reconciliation walks users in id order, one user per transaction
+    @Query("SELECT u.id FROM User u WHERE u.id > :after ORDER BY u.id")
+    List<Long> findIdsAfter(@Param("after") Long after, Limit limit);
+    
+    // Row lock taken before counting, so the counts below see every upload that adjusted this
+    // user's counters before us, and uploads after us wait and add to the reconciled value
+    @Transactional
+    @Query(value = "SELECT id FROM users WHERE id = :id FOR UPDATE", nativeQuery = true)
+    Optional<Long> lockById(@Param("id") Long id);
+    
+    // Reset one user's drifted counters from the owning tables (call under lockById in the same
+    // transaction); returns [id, username] if the row needed fixing
+    @Transactional
+    @Query(value = "UPDATE users u SET photo_count = c.photos, design_count = c.designs, album_count = c.albums " +
+            "FROM (SELECT " +
+            "(SELECT count(*) FROM photos p WHERE p.user_id = :id) AS photos, " +
+            "(SELECT count(*) FROM postcards pc WHERE pc.user_id = :id) AS designs, " +
+            "(SELECT count(*) FROM albums a WHERE a.user_id = :id) AS albums) c " +
+            "WHERE u.id = :id AND (u.photo_count IS DISTINCT FROM c.photos " +
+            "OR u.design_count IS DISTINCT FROM c.designs OR u.album_count IS DISTINCT FROM c.albums) " +
+            "RETURNING u.id, u.username", nativeQuery = true)
+    List<Object[]> reconcileCounters(@Param("id") Long id);
 }
@@ -0,0 +1,24 @@
+package world.isnap.filmpostcard.security;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+
+/**
+ * Operators allowed to call maintenance and bulk-data endpoints, configured as a comma-separated
+ * username list ({@code admin.usernames}). Empty by default: nobody is an admin until configured.
+ */
+@Component
+public class AdminUsers {
+    
+    private final Set<String> usernames;
+    
+    public AdminUsers(@Value("${admin.usernames:}") Set<String> usernames) {
+        this.usernames = usernames;
+    }
+    
+    public boolean isAdmin(AuthenticatedUser principal) {
+        return principal != null && usernames.contains(principal.username());
+    }
+}
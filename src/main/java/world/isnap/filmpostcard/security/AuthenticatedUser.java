@@ -0,0 +1,10 @@
+package world.isnap.filmpostcard.security;
+
+/**
+ * Caller identity taken from a verified JWT, attached to the request by JwtAuthenticationFilter.
+ * Controllers receive it with {@code @RequestAttribute(value = AuthenticatedUser.ATTRIBUTE, required = false)}.
+ */
+public record AuthenticatedUser(String username, Long userId) {
+    
+    public static final String ATTRIBUTE = "world.isnap.filmpostcard.authenticatedUser";
+}
@@ -0,0 +1,82 @@
+package world.isnap.filmpostcard.security;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import world.isnap.filmpostcard.util.JwtUtil;
+
+import java.io.IOException;
+
+/**
+ * Parses and verifies the bearer token once per request and exposes the caller as an
+ * {@link AuthenticatedUser} request attribute. Requests without a valid token pass through
+ * unauthenticated; each endpoint decides whether it requires a principal.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class JwtAuthenticationFilter extends OncePerRequestFilter {
+    
+    private static final String BEARER_PREFIX = "Bearer ";
+    
+    private final JwtUtil jwtUtil;
+    private final VerifiedTokenCache tokenCache;
+    
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // Images are public; clients still send their token on them
+        return request.getRequestURI().startsWith("/api/images/");
+    }
+    
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
+        if (authHeader != null && authHeader.startsWith(BEARER_PREFIX)) {
+            AuthenticatedUser principal = authenticate(authHeader.substring(BEARER_PREFIX.length()));
+            if (principal != null) {
+                request.setAttribute(AuthenticatedUser.ATTRIBUTE, principal);
+            }
+        }
+        chain.doFilter(request, response);
+    }
+    
+    private AuthenticatedUser authenticate(String token) {
+        String digest = tokenCache.digest(token);
+        VerifiedTokenCache.CachedToken cached = tokenCache.get(digest);
+        if (cached != null) {
+            return cached.principal();
+        }
+        
+        try {
+            Claims claims = jwtUtil.parseToken(token);
+            String username = claims.getSubject();
+            if (username == null || claims.getExpiration() == null) {
+                log.warn("JWT token without subject or expiry rejected");
+                tokenCache.putRejected(digest);
+                return null;
+            }
+            AuthenticatedUser principal = new AuthenticatedUser(username, claims.get("userId", Long.class));
+            tokenCache.putVerified(digest, principal, claims.getExpiration().getTime());
+            return principal;
+        } catch (ExpiredJwtException e) {
+            log.debug("Expired JWT token for user: {}", e.getClaims().getSubject());
+            tokenCache.putRejected(digest);
+            return null;
+        } catch (JwtException | IllegalArgumentException e) {
+            // One line per distinct bad token per negative TTL; repeats are answered from the cache
+            log.warn("Invalid JWT token: {}", e.getMessage());
+            tokenCache.putRejected(digest);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package world.isnap.filmpostcard.security;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+
+/**
+ * Verification results for bearer tokens, so a session's token is HMAC-checked and parsed once
+ * rather than on every call. Entries are keyed by the token's SHA-256 (tokens themselves are
+ * never held), verified tokens live until their exp claim, and rejected tokens are remembered
+ * briefly so garbage or expired tokens don't cost a parse (and a log line) per request.
+ * Rejected tokens have their own, smaller bound so a flood of junk can't push out live sessions.
+ */
+@Component
+public class VerifiedTokenCache {
+    
+    @Value("${jwt.cache.max-entries:50000}")
+    private long maxEntries;
+    
+    @Value("${jwt.cache.negative-max-entries:10000}")
+    private long negativeMaxEntries;
+    
+    @Value("${jwt.cache.negative-ttl-ms:30000}")
+    private long negativeTtlMs;
+    
+    private final MeterRegistry meterRegistry;
+    
+    private Cache<String, CachedToken> verified;
+    private Cache<String, CachedToken> rejected;
+    private Counter hits;
+    private Counter misses;
+    
+    public VerifiedTokenCache(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+    
+    @PostConstruct
+    public void init() {
+        // Each verified token expires at its own exp claim
+        verified = Caffeine.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfter(Expiry.writing((String digest, CachedToken token) ->
+                        Duration.ofMillis(Math.max(0, token.expiresAt() - System.currentTimeMillis()))))
+                .build();
+        rejected = Caffeine.newBuilder()
+                .maximumSize(negativeMaxEntries)
+                .expireAfterWrite(Duration.ofMillis(negativeTtlMs))
+                .build();
+        hits = Counter.builder("auth.token_cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("auth.token_cache.requests").tag("result", "miss").register(meterRegistry);
+        Gauge.builder("auth.token_cache.entries", verified, Cache::estimatedSize).tag("kind", "verified").register(meterRegistry);
+        Gauge.builder("auth.token_cache.entries", rejected, Cache::estimatedSize).tag("kind", "rejected").register(meterRegistry);
+    }
+    
+    /**
+     * @return the cached result for this token digest, or null if it has to be verified
+     */
+    public CachedToken get(String digest) {
+        CachedToken cached = verified.getIfPresent(digest);
+        if (cached == null) {
+            cached = rejected.getIfPresent(digest);
+        }
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        return null;
+    }
+    
+    public void putVerified(String digest, AuthenticatedUser principal, long expiresAt) {
+        verified.put(digest, new CachedToken(principal, expiresAt));
+    }
+    
+    public void putRejected(String digest) {
+        rejected.put(digest, new CachedToken(null, System.currentTimeMillis() + negativeTtlMs));
+    }
+    
+    public String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * Verification result: principal is null for a rejected token
+     */
+    public record CachedToken(AuthenticatedUser principal, long expiresAt) {
+    }
+}
@@ -1,22 +1,109 @@
 package world.isnap.filmpostcard.service;
 
-import com.alibaba.cloud.ai.dashscope.chat.DashScopeChatModel;
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+
+/**
+ * Text polishing through the chat model, behind a response cache.
+ * Requests are keyed on the normalized text (NFKC, trimmed, whitespace collapsed) plus the
+ * template type, so the same stock greeting polished by many users costs one model call per
+ * TTL. The normalized text is only the key: the model is sent the caller's text as written, line
+ * breaks included. Concurrent identical requests share one in-flight call: the first caller runs it on its
+ * own thread and the others wait for its result. Failed calls are not cached.
+ */
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class AIService {
     
-    private final DashScopeChatModel chatModel;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    
+    @Value("${ai.polish.cache.max-size:10000}")
+    private long maxSize;
+    
+    @Value("${ai.polish.cache.ttl-seconds:86400}")
+    private long ttlSeconds;
+    
+    private final ChatModel chatModel;
+    private final MeterRegistry meterRegistry;
+    
+    private AsyncCache<PolishKey, String> cache;
+    private Counter coalesced;
+    
+    private record PolishKey(String text, String templateType) {
+    }
+    
+    public AIService(ChatModel chatModel, MeterRegistry meterRegistry) {
+        this.chatModel = chatModel;
+        this.meterRegistry = meterRegistry;
+    }
+    
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .buildAsync();
+        // cache.gets{cache=ai.polish,result=hit|miss}; hits include requests that joined an in-flight call
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "ai.polish");
+        coalesced = Counter.builder("ai.polish.coalesced")
+                .description("Polish requests that waited for an identical in-flight model call")
+                .register(meterRegistry);
+    }
     
     public String polishText(String text, String templateType) {
+        PolishKey key = new PolishKey(normalize(text), templateType != null ? templateType.trim() : "");
+        
+        CompletableFuture<String> cached = cache.getIfPresent(key);
+        if (cached == null) {
+            CompletableFuture<String> call = new CompletableFuture<>();
+            cached = cache.asMap().putIfAbsent(key, call);
+            if (cached == null) {
+                // This request owns the model call; completing the future releases any waiters
+                try {
+                    call.complete(callModel(text != null ? text : "", key.templateType()));
+                } catch (RuntimeException e) {
+                    // Caffeine drops the failed future, so the next request retries
+                    call.completeExceptionally(e);
+                }
+                cached = call;
+            } else if (!cached.isDone()) {
+                // Lost the race to another request's identical call
+                coalesced.increment();
+            }
+        } else if (!cached.isDone()) {
+            coalesced.increment();
+        }
+        
+        try {
+            return cached.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+    
+    private String callModel(String text, String templateType) {
         String promptText = buildPrompt(text, templateType);
         
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
         try {
             Prompt prompt = new Prompt(new UserMessage(promptText));
             String response = chatModel.call(prompt)
@@ -24,12 +111,25 @@ public class AIService {
                     .getOutput()
                     .getText();
             
+            outcome = "success";
             log.info("AI polished text successfully for template: {}", templateType);
             return response;
         } catch (Exception e) {
             log.error("Error calling AI service", e);
             throw new RuntimeException("AI service unavailable", e);
+        } finally {
+            sample.stop(Timer.builder("ai.polish.model")
+                    .description("Chat model call latency for text polishing")
+                    .tag("result", outcome)
+                    .register(meterRegistry));
+        }
+    }
+    
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
         }
+        return WHITESPACE.matcher(Normalizer.normalize(text, Normalizer.Form.NFKC)).replaceAll(" ").trim();
     }
     
     private String buildPrompt(String text, String templateType) {
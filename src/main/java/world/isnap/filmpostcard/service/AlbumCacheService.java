@@ -0,0 +1,71 @@
+package world.isnap.filmpostcard.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import world.isnap.filmpostcard.dto.AlbumResponse;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Per-user cache of the album list (counts and cover thumbnails included).
+ * Anything that adds, removes or moves a photo, or changes an album, calls
+ * {@link #invalidate(Long)}; like the user cache, the entry is dropped now and again after
+ * commit. Cover thumbnails generated later by the derivative pipeline show up within the TTL.
+ */
+@Service
+@Slf4j
+public class AlbumCacheService {
+
+    @Value("${album.cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${album.cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    private final MeterRegistry meterRegistry;
+
+    private Cache<Long, List<AlbumResponse>> byUser;
+
+    public AlbumCacheService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        byUser = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, byUser, "albums.by_user");
+    }
+
+    public List<AlbumResponse> getAlbums(Long userId, Supplier<List<AlbumResponse>> loader) {
+        return byUser.get(userId, id -> List.copyOf(loader.get()));
+    }
+
+    public void invalidate(Long userId) {
+        if (userId == null) {
+            return;
+        }
+        byUser.invalidate(userId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    byUser.invalidate(userId);
+                }
+            });
+        }
+    }
+}
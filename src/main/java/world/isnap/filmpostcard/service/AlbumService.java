@@ -6,13 +6,13 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import world.isnap.filmpostcard.dto.AlbumRequest;
 import world.isnap.filmpostcard.dto.AlbumResponse;
+import world.isnap.filmpostcard.dto.AlbumRow;
 import world.isnap.filmpostcard.entity.Album;
-import world.isnap.filmpostcard.entity.Photo;
 import world.isnap.filmpostcard.entity.User;
 import world.isnap.filmpostcard.repository.AlbumRepository;
 import world.isnap.filmpostcard.repository.PhotoRepository;
-import world.isnap.filmpostcard.repository.UserRepository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -22,12 +22,14 @@ import java.util.stream.Collectors;
 public class AlbumService {
     
     private final AlbumRepository albumRepository;
-    private final UserRepository userRepository;
+    private final UserCacheService userCacheService;
     private final PhotoRepository photoRepository;
+    private final UserCounterService userCounterService;
+    private final AlbumCacheService albumCacheService;
     
     @Transactional
     public AlbumResponse createAlbum(String username, AlbumRequest request) {
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
         if (request.getName() == null || request.getName().trim().isEmpty()) {
@@ -42,6 +44,8 @@ public class AlbumService {
                 .build();
         
         Album savedAlbum = albumRepository.save(album);
+        userCounterService.adjustAlbums(user, 1);
+        albumCacheService.invalidate(user.getId());
         log.info("Album created: {} by user: {}", savedAlbum.getId(), username);
         
         return toAlbumResponse(savedAlbum);
@@ -49,19 +53,18 @@ public class AlbumService {
     
     @Transactional(readOnly = true)
     public List<AlbumResponse> getUserAlbums(String username) {
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
-        List<Album> albums = albumRepository.findByUserOrderByCreatedAtDesc(user);
-        
-        return albums.stream()
+        return albumCacheService.getAlbums(user.getId(), () -> albumRepository.findRowsByUser(user.getId())
+                .stream()
                 .map(this::toAlbumResponse)
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
     }
     
     @Transactional
     public AlbumResponse updateAlbum(String username, String albumId, AlbumRequest request) {
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
         Long albumIdLong = parseAlbumId(albumId);
@@ -81,6 +84,7 @@ public class AlbumService {
         }
         
         Album updatedAlbum = albumRepository.save(album);
+        albumCacheService.invalidate(user.getId());
         log.info("Album updated: {} by user: {}", albumId, username);
         
         return toAlbumResponse(updatedAlbum);
@@ -88,7 +92,7 @@ public class AlbumService {
     
     @Transactional
     public void deleteAlbum(String username, String albumId) {
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
         Long albumIdLong = parseAlbumId(albumId);
@@ -96,17 +100,28 @@ public class AlbumService {
         Album album = albumRepository.findByIdAndUser(albumIdLong, user)
                 .orElseThrow(() -> new RuntimeException("Album not found or not owned by user"));
         
-        // Remove album reference from all photos in this album
-        List<Photo> photosInAlbum = photoRepository.findByAlbumOrderByCreatedAtDesc(album);
-        for (Photo photo : photosInAlbum) {
-            photo.setAlbum(null);
-        }
-        photoRepository.saveAll(photosInAlbum);
+        // Remove album reference from all photos in this album (single UPDATE)
+        int uncategorized = photoRepository.detachAllFromAlbum(album.getId(), LocalDateTime.now());
         
         // Delete the album
         albumRepository.delete(album);
+        userCounterService.adjustAlbums(user, -1);
+        albumCacheService.invalidate(user.getId());
         log.info("Album deleted: {} by user: {}, {} photos became uncategorized", 
-                albumId, username, photosInAlbum.size());
+                albumId, username, uncategorized);
+    }
+    
+    private AlbumResponse toAlbumResponse(AlbumRow row) {
+        return AlbumResponse.builder()
+                .id(String.valueOf(row.id()))
+                .name(row.name())
+                .description(row.description())
+                .coverPhoto(row.coverPhoto())
+                .coverPhotoThumb(row.coverThumb() != null ? row.coverThumb() : row.coverPhoto())
+                .photoCount(row.photoCount().intValue())
+                .createdAt(row.createdAt().toString())
+                .updatedAt(row.updatedAt().toString())
+                .build();
     }
     
     private AlbumResponse toAlbumResponse(Album album) {
@@ -118,6 +133,7 @@ public class AlbumService {
                 .name(album.getName())
                 .description(album.getDescription())
                 .coverPhoto(album.getCoverPhoto())
+                .coverPhotoThumb(album.getCoverPhoto())
                 .photoCount(photoCount.intValue())
                 .createdAt(album.getCreatedAt().toString())
                 .updatedAt(album.getUpdatedAt().toString())
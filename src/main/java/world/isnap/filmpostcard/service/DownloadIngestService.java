@@ -0,0 +1,326 @@
+package world.isnap.filmpostcard.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import world.isnap.filmpostcard.entity.Download;
+import world.isnap.filmpostcard.repository.DownloadRepository;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind ingestion for download events.
+ * Requests only enqueue (a CAS-bounded lock-free queue); one flusher thread writes the events in
+ * JDBC batches when a batch fills up or the flush interval passes, so traffic spikes cost a few
+ * batched transactions instead of a pool connection per event. Events that don't fit in the
+ * queue, or whose batch can't be written, are appended to a local spill file (JSON lines) and
+ * replayed once the queue has drained. On shutdown the queue is flushed (or spilled), and a
+ * spill left by the previous run is replayed at startup. Delivery is at-least-once.
+ */
+@Service
+@Slf4j
+public class DownloadIngestService {
+
+    private static final long REPLAY_BACKOFF_SECONDS = 30;
+
+    @Value("${downloads.ingest.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${downloads.ingest.batch-size:500}")
+    private int batchSize;
+
+    @Value("${downloads.ingest.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    @Value("${downloads.ingest.spill-file:download-spill.jsonl}")
+    private String spillFileName;
+
+    private final DownloadRepository downloadRepository;
+    private final DownloadRollupService downloadRollupService;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    private final Queue<Download> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Object spillLock = new Object();
+
+    private Path spillFile;
+    private Path replayFile;
+    private BufferedWriter spillWriter;
+    private Thread flusher;
+    private volatile boolean running;
+    private boolean replayBackoff; // flusher thread only, like replayBackoffUntil
+    private long replayBackoffUntil;
+
+    private Counter flushedEvents;
+    private Counter spilledEvents;
+    private Counter replayedEvents;
+
+    public DownloadIngestService(DownloadRepository downloadRepository,
+                                 DownloadRollupService downloadRollupService,
+                                 TransactionTemplate transactionTemplate,
+                                 ObjectMapper objectMapper,
+                                 MeterRegistry meterRegistry) {
+        this.downloadRepository = downloadRepository;
+        this.downloadRollupService = downloadRollupService;
+        this.transactionTemplate = transactionTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        spillFile = Paths.get(spillFileName).toAbsolutePath().normalize();
+        replayFile = spillFile.resolveSibling(spillFile.getFileName() + ".replay");
+
+        flushedEvents = Counter.builder("downloads.ingest.events").tag("result", "flushed").register(meterRegistry);
+        spilledEvents = Counter.builder("downloads.ingest.events").tag("result", "spilled").register(meterRegistry);
+        replayedEvents = Counter.builder("downloads.ingest.events").tag("result", "replayed").register(meterRegistry);
+        Gauge.builder("downloads.ingest.queue", queued, AtomicInteger::get).register(meterRegistry);
+
+        running = true;
+        flusher = new Thread(this::runFlusher, "download-ingest");
+        flusher.setDaemon(true);
+        flusher.start();
+        log.info("Download ingestion started: queue capacity {}, batch size {}, flush interval {}ms, spill file {}",
+                queueCapacity, batchSize, flushIntervalMs, spillFile);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(flusher);
+        flusher.join(TimeUnit.SECONDS.toMillis(30));
+        if (flusher.isAlive()) {
+            log.warn("Download ingestion did not drain in time");
+        }
+        synchronized (spillLock) {
+            closeSpillWriter();
+        }
+    }
+
+    /**
+     * Accept an event without touching the database
+     */
+    public void submit(Download event) {
+        if (!reserveSlot()) {
+            spill(List.of(event));
+            return;
+        }
+        queue.offer(event);
+        if (queued.get() >= batchSize) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    private boolean reserveSlot() {
+        while (true) {
+            int current = queued.get();
+            if (current >= queueCapacity) {
+                return false;
+            }
+            if (queued.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void runFlusher() {
+        // Leftovers from the previous run go first
+        replaySpill();
+
+        List<Download> batch = new ArrayList<>(batchSize);
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        long nextFlush = System.nanoTime() + intervalNanos;
+        while (running || !queue.isEmpty()) {
+            Download event;
+            while (batch.size() < batchSize && (event = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.add(event);
+            }
+
+            long now = System.nanoTime();
+            if (batch.size() >= batchSize || (now >= nextFlush && !batch.isEmpty())) {
+                flush(batch);
+                batch.clear();
+                nextFlush = now + intervalNanos;
+            } else if (now >= nextFlush) {
+                if (replayBackoff && now - replayBackoffUntil >= 0) {
+                    replayBackoff = false;
+                }
+                if (queued.get() < queueCapacity / 2 && !replayBackoff) {
+                    replaySpill();
+                }
+                nextFlush = now + intervalNanos;
+            } else if (running) {
+                LockSupport.parkNanos(this, nextFlush - now);
+            }
+        }
+        if (!batch.isEmpty()) {
+            flush(batch);
+        }
+    }
+
+    private void flush(List<Download> batch) {
+        try {
+            write(batch);
+            flushedEvents.increment(batch.size());
+        } catch (RuntimeException e) {
+            log.warn("Failed to write {} download events, spilling to disk: {}", batch.size(), e.getMessage());
+            spill(batch);
+        }
+    }
+
+    private void write(List<Download> batch) {
+        // Raw rows and their rollup increments commit together
+        transactionTemplate.executeWithoutResult(status -> {
+            downloadRepository.saveAll(batch);
+            downloadRepository.flush();
+            downloadRollupService.record(batch);
+        });
+    }
+
+    private void spill(List<Download> events) {
+        synchronized (spillLock) {
+            try {
+                if (spillWriter == null) {
+                    spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+                for (Download event : events) {
+                    spillWriter.write(objectMapper.writeValueAsString(event));
+                    spillWriter.newLine();
+                }
+                spillWriter.flush();
+                spilledEvents.increment(events.size());
+            } catch (IOException e) {
+                log.error("Failed to spill {} download events, they are lost", events.size(), e);
+            }
+        }
+    }
+
+    /**
+     * Move the spill file aside and stream its events back in batches, so memory stays at one
+     * batch however large the spill grew during an outage. If a batch fails, its lines and the
+     * unread rest of the file go back to the spill file; everything before it is already written.
+     */
+    private void replaySpill() {
+        try {
+            synchronized (spillLock) {
+                if (!Files.exists(replayFile)) {
+                    if (!Files.exists(spillFile)) {
+                        return;
+                    }
+                    closeSpillWriter();
+                    Files.move(spillFile, replayFile, StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+
+            int replayed = 0;
+            try (BufferedReader reader = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+                List<String> lines = new ArrayList<>(batchSize);
+                List<Download> batch = new ArrayList<>(batchSize);
+                String line;
+                do {
+                    line = reader.readLine();
+                    if (line != null && !line.isBlank()) {
+                        try {
+                            Download event = objectMapper.readValue(line, Download.class);
+                            event.setId(null);
+                            batch.add(event);
+                            lines.add(line);
+                        } catch (IOException e) {
+                            log.warn("Skipping unreadable spilled download event: {}", line);
+                        }
+                    }
+                    if (batch.size() >= batchSize || (line == null && !batch.isEmpty())) {
+                        try {
+                            write(batch);
+                            replayed += batch.size();
+                        } catch (RuntimeException e) {
+                            long kept = respill(lines, reader);
+                            log.warn("Replay of spilled download events failed, {} kept for later: {}", kept, e.getMessage());
+                            // Don't rewrite the spill file every interval while the database is down
+                            replayBackoff = true;
+                            replayBackoffUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(REPLAY_BACKOFF_SECONDS);
+                            break;
+                        }
+                        lines.clear();
+                        batch = new ArrayList<>(batchSize);
+                    }
+                } while (line != null);
+            }
+            Files.delete(replayFile);
+            replayedEvents.increment(replayed);
+            if (replayed > 0) {
+                log.info("Replayed {} spilled download events", replayed);
+            }
+        } catch (IOException e) {
+            log.error("Failed to replay spilled download events from {}", replayFile, e);
+        }
+    }
+
+    /**
+     * Append the failed batch's original lines and the rest of the replay file to the spill file
+     * @return number of events put back
+     */
+    private long respill(List<String> failedLines, BufferedReader rest) throws IOException {
+        synchronized (spillLock) {
+            if (spillWriter == null) {
+                spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            long kept = 0;
+            for (String failed : failedLines) {
+                spillWriter.write(failed);
+                spillWriter.newLine();
+                kept++;
+            }
+            String line;
+            while ((line = rest.readLine()) != null) {
+                if (!line.isBlank()) {
+                    spillWriter.write(line);
+                    spillWriter.newLine();
+                    kept++;
+                }
+            }
+            spillWriter.flush();
+            spilledEvents.increment(kept);
+            return kept;
+        }
+    }
+
+    private void closeSpillWriter() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                log.warn("Failed to close download spill file", e);
+            }
+            spillWriter = null;
+        }
+    }
+}
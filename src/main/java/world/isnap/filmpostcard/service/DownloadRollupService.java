@@ -0,0 +1,212 @@
+package world.isnap.filmpostcard.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import world.isnap.filmpostcard.dto.DownloadCountRow;
+import world.isnap.filmpostcard.dto.TemplateTrendRow;
+import world.isnap.filmpostcard.entity.Download;
+import world.isnap.filmpostcard.entity.DownloadRollup;
+import world.isnap.filmpostcard.repository.DownloadRollupRepository;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Download analytics rollups: counts per image and per template type in hour and day buckets.
+ * Each ingested batch is folded into the rollups in the same transaction as the raw rows, so
+ * the two never disagree; analytics queries read only rollup buckets. The rollups can be
+ * rebuilt from the raw table, and old raw rows are compacted away once they are older than
+ * the retention window (their counts live on in the rollups).
+ */
+@Service
+@Slf4j
+public class DownloadRollupService {
+    
+    private static final String UPSERT = "INSERT INTO download_rollups " +
+            "(granularity, dimension, dimension_value, bucket_start, download_count) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (granularity, dimension, dimension_value, bucket_start) " +
+            "DO UPDATE SET download_count = download_rollups.download_count + EXCLUDED.download_count";
+    
+    // One pass over the raw rows for all four rollups
+    private static final String REBUILD = "INSERT INTO download_rollups " +
+            "(granularity, dimension, dimension_value, bucket_start, download_count) " +
+            "SELECT g.granularity, g.dimension, g.dimension_value, g.bucket_start, count(*) FROM downloads d " +
+            "CROSS JOIN LATERAL (VALUES " +
+            "('hour', 'image', COALESCE(d.image_id, 'unknown'), date_trunc('hour', d.download_timestamp)), " +
+            "('day', 'image', COALESCE(d.image_id, 'unknown'), date_trunc('day', d.download_timestamp)), " +
+            "('hour', 'template', COALESCE(d.template_type, 'unknown'), date_trunc('hour', d.download_timestamp)), " +
+            "('day', 'template', COALESCE(d.template_type, 'unknown'), date_trunc('day', d.download_timestamp))" +
+            ") AS g(granularity, dimension, dimension_value, bucket_start) " +
+            "WHERE d.download_timestamp >= ? " +
+            "GROUP BY g.granularity, g.dimension, g.dimension_value, g.bucket_start";
+    
+    private static final int COMPACTION_CHUNK = 10000;
+    
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    
+    @Value("${downloads.retention.raw-days:90}")
+    private int rawRetentionDays;
+    
+    @Value("${downloads.retention.hourly-rollup-days:30}")
+    private int hourlyRetentionDays;
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DownloadRollupRepository downloadRollupRepository;
+    
+    public DownloadRollupService(JdbcTemplate jdbcTemplate,
+                                 TransactionTemplate transactionTemplate,
+                                 DownloadRollupRepository downloadRollupRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.downloadRollupRepository = downloadRollupRepository;
+    }
+    
+    /**
+     * Fold a batch of new events into the rollups; call inside the transaction that inserts them
+     */
+    public void record(List<Download> events) {
+        Map<DownloadRollup.Key, Long> counts = new HashMap<>();
+        for (Download event : events) {
+            LocalDateTime hour = event.getDownloadTimestamp().truncatedTo(ChronoUnit.HOURS);
+            LocalDateTime day = event.getDownloadTimestamp().truncatedTo(ChronoUnit.DAYS);
+            String image = event.getImageId() != null ? event.getImageId() : DownloadRollup.UNKNOWN;
+            String template = event.getTemplateType() != null ? event.getTemplateType() : DownloadRollup.UNKNOWN;
+            counts.merge(new DownloadRollup.Key(DownloadRollup.GRANULARITY_HOUR, DownloadRollup.DIMENSION_IMAGE, image, hour), 1L, Long::sum);
+            counts.merge(new DownloadRollup.Key(DownloadRollup.GRANULARITY_DAY, DownloadRollup.DIMENSION_IMAGE, image, day), 1L, Long::sum);
+            counts.merge(new DownloadRollup.Key(DownloadRollup.GRANULARITY_HOUR, DownloadRollup.DIMENSION_TEMPLATE, template, hour), 1L, Long::sum);
+            counts.merge(new DownloadRollup.Key(DownloadRollup.GRANULARITY_DAY, DownloadRollup.DIMENSION_TEMPLATE, template, day), 1L, Long::sum);
+        }
+        
+        List<Object[]> rows = new ArrayList<>(counts.size());
+        counts.forEach((key, count) -> rows.add(new Object[] {
+                key.getGranularity(), key.getDimension(), key.getDimensionValue(),
+                Timestamp.valueOf(key.getBucketStart()), count}));
+        jdbcTemplate.batchUpdate(UPSERT, rows);
+    }
+    
+    /**
+     * Top images by downloads over the last {@code days} days (today included)
+     */
+    @Transactional(readOnly = true)
+    public List<DownloadCountRow> getTopImages(int days, int limit) {
+        LocalDateTime from = LocalDate.now().minusDays(Math.max(days, 1) - 1L).atStartOfDay();
+        return downloadRollupRepository.findTop(DownloadRollup.GRANULARITY_DAY, DownloadRollup.DIMENSION_IMAGE,
+                from, Limit.of(limit));
+    }
+    
+    /**
+     * Downloads per template type per bucket; hourly trends are limited to the hourly retention
+     */
+    @Transactional(readOnly = true)
+    public List<TemplateTrendRow> getTemplateTrends(String granularity, int days) {
+        if (!DownloadRollup.GRANULARITY_HOUR.equals(granularity) && !DownloadRollup.GRANULARITY_DAY.equals(granularity)) {
+            throw new RuntimeException("Invalid granularity: " + granularity + " (expected hour or day)");
+        }
+        LocalDateTime from = LocalDate.now().minusDays(Math.max(days, 1) - 1L).atStartOfDay();
+        return downloadRollupRepository.findTemplateTrend(granularity, from);
+    }
+    
+    /**
+     * Recompute rollup buckets from {@code from} (a day boundary) out of the raw table.
+     * Only days the raw table still holds completely can be recounted, so the start is clamped to
+     * the raw retention cutoff and to the oldest raw row: buckets before that are history that
+     * exists nowhere else and are never deleted. One rebuild runs at a time.
+     * @return number of rollup rows written
+     */
+    public int rebuild(LocalDate from) {
+        LocalDateTime oldest = jdbcTemplate.queryForObject("SELECT min(download_timestamp) FROM downloads", LocalDateTime.class);
+        if (oldest == null) {
+            log.info("Download rollup rebuild skipped: no raw events to recount");
+            return 0;
+        }
+        LocalDate start = rawCutoff();
+        if (oldest.toLocalDate().isAfter(start)) {
+            start = oldest.toLocalDate();
+        }
+        if (from != null && from.isAfter(start)) {
+            start = from;
+        }
+        return rebuildFrom(start.atStartOfDay());
+    }
+    
+    private int rebuildFrom(LocalDateTime start) {
+        if (!rebuilding.compareAndSet(false, true)) {
+            throw new RuntimeException("A download rollup rebuild is already running");
+        }
+        try {
+            Integer written = transactionTemplate.execute(status -> {
+                // Ingestion flushes wait for the rebuild; their events are counted exactly once,
+                // either by the rebuild's snapshot (committed before) or by their own upsert (after)
+                jdbcTemplate.execute("LOCK TABLE download_rollups IN SHARE ROW EXCLUSIVE MODE");
+                jdbcTemplate.update("DELETE FROM download_rollups WHERE bucket_start >= ?", Timestamp.valueOf(start));
+                return jdbcTemplate.update(REBUILD, Timestamp.valueOf(start));
+            });
+            log.info("Download rollups rebuilt from {}: {} rows", start, written);
+            return written != null ? written : 0;
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+    
+    /**
+     * First start with rollups: build them from all existing raw rows before retention can delete
+     * any. The table is empty, so nothing older than the retention window is lost by starting early.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void initialize() {
+        try {
+            boolean empty = jdbcTemplate.queryForObject("SELECT NOT EXISTS (SELECT 1 FROM download_rollups)", Boolean.class);
+            LocalDateTime oldest = jdbcTemplate.queryForObject("SELECT min(download_timestamp) FROM downloads", LocalDateTime.class);
+            if (empty && oldest != null) {
+                rebuildFrom(oldest.toLocalDate().atStartOfDay());
+            }
+        } catch (Exception e) {
+            log.error("Failed to initialize download rollups", e);
+        }
+    }
+    
+    /**
+     * Retention: delete raw events older than the raw window (whole days, in short chunks so no
+     * long transaction holds locks) and hourly buckets older than the hourly window
+     */
+    @Scheduled(cron = "${downloads.retention.cron:0 15 3 * * *}")
+    public void compact() {
+        try {
+            Timestamp rawCutoff = Timestamp.valueOf(rawCutoff().atStartOfDay());
+            int deleted = 0;
+            int chunk;
+            do {
+                chunk = jdbcTemplate.update("DELETE FROM downloads WHERE id IN " +
+                        "(SELECT id FROM downloads WHERE download_timestamp < ? LIMIT " + COMPACTION_CHUNK + ")", rawCutoff);
+                deleted += chunk;
+            } while (chunk == COMPACTION_CHUNK);
+            
+            Timestamp hourlyCutoff = Timestamp.valueOf(LocalDate.now().minusDays(hourlyRetentionDays).atStartOfDay());
+            int pruned = jdbcTemplate.update("DELETE FROM download_rollups WHERE granularity = ? AND bucket_start < ?",
+                    DownloadRollup.GRANULARITY_HOUR, hourlyCutoff);
+            log.info("Download retention: {} raw events before {} and {} hourly buckets removed", deleted, rawCutoff, pruned);
+        } catch (Exception e) {
+            log.error("Download retention failed", e);
+        }
+    }
+    
+    private LocalDate rawCutoff() {
+        return LocalDate.now().minusDays(rawRetentionDays);
+    }
+}
@@ -3,14 +3,16 @@ package world.isnap.filmpostcard.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import world.isnap.filmpostcard.dto.CursorPageResponse;
 import world.isnap.filmpostcard.dto.DownloadRequest;
 import world.isnap.filmpostcard.dto.DownloadResponse;
 import world.isnap.filmpostcard.entity.Download;
 import world.isnap.filmpostcard.repository.DownloadRepository;
+import world.isnap.filmpostcard.util.CursorUtil;
 
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -20,8 +22,12 @@ import java.util.stream.Collectors;
 public class DownloadService {
     
     private final DownloadRepository downloadRepository;
+    private final DownloadIngestService downloadIngestService;
     
-    @Transactional
+    /**
+     * Accept a download event; it is written in the background by DownloadIngestService,
+     * so the response carries no id yet
+     */
     public DownloadResponse recordDownload(DownloadRequest request) {
         LocalDateTime downloadTime = LocalDateTime.now();
         
@@ -43,10 +49,10 @@ public class DownloadService {
                 .downloadTimestamp(downloadTime)
                 .build();
         
-        Download saved = downloadRepository.save(download);
-        log.info("Download recorded with ID: {}", saved.getId());
+        downloadIngestService.submit(download);
+        log.debug("Download queued for image: {}", download.getImageId());
         
-        return toResponse(saved);
+        return toResponse(download);
     }
     
     public List<DownloadResponse> getAllDownloads() {
@@ -56,6 +62,22 @@ public class DownloadService {
                 .collect(Collectors.toList());
     }
     
+    public CursorPageResponse<DownloadResponse> getDownloadsByCursor(String cursor, Integer limit) {
+        int size = CursorUtil.clampLimit(limit);
+        CursorUtil.Cursor after = CursorUtil.decode(cursor);
+        List<Download> downloads = new ArrayList<>(after == null
+                ? downloadRepository.findFirstPage(size + 1)
+                : downloadRepository.findPageAfter(after.timestamp(), after.id(), size + 1));
+        String nextCursor = CursorUtil.nextCursor(downloads, size, Download::getDownloadTimestamp, Download::getId);
+        
+        return CursorPageResponse.<DownloadResponse>builder()
+                .items(downloads.stream().map(this::toResponse).collect(Collectors.toList()))
+                .nextCursor(nextCursor)
+                .hasNext(nextCursor != null)
+                .limit(size)
+                .build();
+    }
+    
     public List<DownloadResponse> getDownloadsByImageId(String imageId) {
         return downloadRepository.findByImageId(imageId)
                 .stream()
@@ -63,7 +85,7 @@ public class DownloadService {
                 .collect(Collectors.toList());
     }
     
-    private DownloadResponse toResponse(Download download) {
+    DownloadResponse toResponse(Download download) {
         return DownloadResponse.builder()
                 .id(download.getId())
                 .imageId(download.getImageId())
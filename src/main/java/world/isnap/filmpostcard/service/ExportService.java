@@ -0,0 +1,325 @@
+package world.isnap.filmpostcard.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import world.isnap.filmpostcard.dto.DownloadResponse;
+import world.isnap.filmpostcard.dto.OrderResponse;
+import world.isnap.filmpostcard.dto.PostcardResponse;
+import world.isnap.filmpostcard.repository.DownloadRepository;
+import world.isnap.filmpostcard.repository.OrderRepository;
+import world.isnap.filmpostcard.repository.PostcardRepository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Full-table exports of postcards, orders and downloads as NDJSON or CSV.
+ * Rows are read through a server-side cursor (repository Stream with a fetch size) inside a
+ * read-only transaction, written to the response one at a time and detached right after, so
+ * memory stays flat however large the table is.
+ * Each running export holds a pooled connection, so only a few run at once (callers take a slot
+ * first), and an export that runs past its time limit is aborted however slowly the client reads.
+ */
+@Service
+@Slf4j
+public class ExportService {
+
+    public enum Format {
+        NDJSON("application/x-ndjson", "ndjson"),
+        CSV("text/csv", "csv");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        public static Format fromString(String value) {
+            if (value == null || value.isBlank()) {
+                return NDJSON;
+            }
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(value.trim())) {
+                    return format;
+                }
+            }
+            throw new RuntimeException("Unsupported export format: " + value + " (expected ndjson or csv)");
+        }
+    }
+
+    private record Column<T>(String name, Function<T, Object> value) {
+    }
+
+    private static final List<Column<PostcardResponse>> POSTCARD_COLUMNS = List.of(
+            new Column<>("id", PostcardResponse::getId),
+            new Column<>("imageUrl", PostcardResponse::getImageUrl),
+            new Column<>("textContent", PostcardResponse::getTextContent),
+            new Column<>("originalFilename", PostcardResponse::getOriginalFilename),
+            new Column<>("fileSize", PostcardResponse::getFileSize),
+            new Column<>("templateType", PostcardResponse::getTemplateType),
+            new Column<>("qrUrl", PostcardResponse::getQrUrl),
+            new Column<>("createdAt", PostcardResponse::getCreatedAt));
+
+    private static final List<Column<OrderResponse>> ORDER_COLUMNS = List.of(
+            new Column<>("id", OrderResponse::getId),
+            new Column<>("postcardId", OrderResponse::getPostcardId),
+            new Column<>("customerName", OrderResponse::getCustomerName),
+            new Column<>("customerPhone", OrderResponse::getCustomerPhone),
+            new Column<>("deliveryAddress", OrderResponse::getDeliveryAddress),
+            new Column<>("quantity", OrderResponse::getQuantity),
+            new Column<>("status", OrderResponse::getStatus),
+            new Column<>("createdAt", OrderResponse::getCreatedAt));
+
+    private static final List<Column<DownloadResponse>> DOWNLOAD_COLUMNS = List.of(
+            new Column<>("id", DownloadResponse::getId),
+            new Column<>("imageId", DownloadResponse::getImageId),
+            new Column<>("templateType", DownloadResponse::getTemplateType),
+            new Column<>("downloadTimestamp", DownloadResponse::getDownloadTimestamp),
+            new Column<>("createdAt", DownloadResponse::getCreatedAt));
+
+    // Push buffered output to the client every this many rows
+    private static final int FLUSH_EVERY = 1000;
+
+    @Value("${exports.max-concurrent:2}")
+    private int maxConcurrent;
+
+    @Value("${exports.max-duration-seconds:600}")
+    private int maxDurationSeconds;
+
+    private Semaphore slots;
+
+    private final PostcardRepository postcardRepository;
+    private final OrderRepository orderRepository;
+    private final DownloadRepository downloadRepository;
+    private final PostcardService postcardService;
+    private final OrderService orderService;
+    private final DownloadService downloadService;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readOnlyTransaction;
+    private final ObjectWriter jsonWriter;
+
+    public ExportService(PostcardRepository postcardRepository,
+                         OrderRepository orderRepository,
+                         DownloadRepository downloadRepository,
+                         PostcardService postcardService,
+                         OrderService orderService,
+                         DownloadService downloadService,
+                         EntityManager entityManager,
+                         PlatformTransactionManager transactionManager,
+                         ObjectMapper objectMapper) {
+        this.postcardRepository = postcardRepository;
+        this.orderRepository = orderRepository;
+        this.downloadRepository = downloadRepository;
+        this.postcardService = postcardService;
+        this.orderService = orderService;
+        this.downloadService = downloadService;
+        this.entityManager = entityManager;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        // One JSON document per line; flushing is left to the export loop
+        this.jsonWriter = objectMapper.writer()
+                .withRootValueSeparator("\n")
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    @PostConstruct
+    public void init() {
+        slots = new Semaphore(maxConcurrent);
+        // Bounds the cursor query as well; the row loop enforces the same limit while streaming
+        readOnlyTransaction.setTimeout(maxDurationSeconds);
+    }
+
+    /**
+     * Reserve one of the concurrent export slots; release it with {@link #releaseSlot()} when done
+     * @return false if all slots are busy
+     */
+    public boolean tryAcquireSlot() {
+        return slots.tryAcquire();
+    }
+
+    public void releaseSlot() {
+        slots.release();
+    }
+
+    public long exportPostcards(OutputStream out, Format format) {
+        return export("postcards", postcardRepository::streamAllForExport, postcardService::toResponse,
+                POSTCARD_COLUMNS, out, format);
+    }
+
+    public long exportOrders(OutputStream out, Format format) {
+        return export("orders", orderRepository::streamAllForExport, orderService::toResponse,
+                ORDER_COLUMNS, out, format);
+    }
+
+    public long exportDownloads(OutputStream out, Format format) {
+        return export("downloads", downloadRepository::streamAllForExport, downloadService::toResponse,
+                DOWNLOAD_COLUMNS, out, format);
+    }
+
+    private <E, D> long export(String table, Supplier<Stream<E>> source, Function<E, D> mapper,
+                               List<Column<D>> columns, OutputStream out, Format format) {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.SECONDS.toNanos(maxDurationSeconds);
+        Long rows = readOnlyTransaction.execute(status -> {
+            try (Stream<E> stream = source.get()) {
+                RowWriter<D> writer = format == Format.CSV ? new CsvRowWriter<>(out, columns) : new JsonRowWriter<>(out);
+                long count = 0;
+                for (E entity : (Iterable<E>) stream::iterator) {
+                    writer.write(mapper.apply(entity));
+                    // Read-only entities still sit in the persistence context until detached
+                    entityManager.detach(entity);
+                    if (++count % FLUSH_EVERY == 0) {
+                        writer.flush();
+                        if (System.nanoTime() - deadline > 0) {
+                            // Ends the response mid-stream; the client sees a truncated download
+                            throw new IllegalStateException("Export of " + table + " exceeded "
+                                    + maxDurationSeconds + "s after " + count + " rows");
+                        }
+                    }
+                }
+                writer.finish();
+                return count;
+            } catch (IOException e) {
+                // Typically the client went away; the cursor is closed with the stream
+                throw new UncheckedIOException(e);
+            }
+        });
+        log.info("Exported {} {} as {} in {} ms", rows, table, format,
+                (System.nanoTime() - started) / 1_000_000);
+        return rows != null ? rows : 0;
+    }
+
+    private interface RowWriter<D> {
+        void write(D row) throws IOException;
+
+        void flush() throws IOException;
+
+        void finish() throws IOException;
+    }
+
+    private class JsonRowWriter<D> implements RowWriter<D> {
+
+        private final JsonGenerator generator;
+        private boolean empty = true;
+
+        JsonRowWriter(OutputStream out) throws IOException {
+            // The servlet stream belongs to the container; don't close it with the generator
+            this.generator = jsonWriter.getFactory().createGenerator(out)
+                    .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public void write(D row) throws IOException {
+            jsonWriter.writeValue(generator, row);
+            empty = false;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            generator.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (!empty) {
+                generator.writeRaw('\n');
+            }
+            generator.close();
+        }
+    }
+
+    private static class CsvRowWriter<D> implements RowWriter<D> {
+
+        private final Writer writer;
+        private final List<Column<D>> columns;
+
+        CsvRowWriter(OutputStream out, List<Column<D>> columns) throws IOException {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            this.columns = columns;
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write(columns.get(i).name());
+            }
+            writer.write("\r\n");
+        }
+
+        @Override
+        public void write(D row) throws IOException {
+            for (int i = 0; i < columns.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                Object value = columns.get(i).value().apply(row);
+                if (value instanceof Number) {
+                    writeField(value.toString());
+                } else if (value != null) {
+                    writeField(defuseFormula(value.toString()));
+                }
+            }
+            writer.write("\r\n");
+        }
+
+        // Spreadsheets run text cells starting with one of these as formulas (CSV injection);
+        // a leading apostrophe makes them plain text. Numbers are left alone so they stay numeric.
+        private static String defuseFormula(String value) {
+            if (!value.isEmpty() && "=+-@\t\r".indexOf(value.charAt(0)) >= 0) {
+                return "'" + value;
+            }
+            return value;
+        }
+
+        // RFC 4180: quote fields containing separators, quotes or line breaks, doubling inner quotes
+        private void writeField(String value) throws IOException {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0
+                    && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            writer.flush();
+        }
+    }
+}
@@ -4,26 +4,67 @@ import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import world.isnap.filmpostcard.repository.ImageBlobRepository;
+import world.isnap.filmpostcard.util.JpegHeaderUtil;
+import world.isnap.filmpostcard.util.TeeInputStream;
 
+import java.awt.Dimension;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.UUID;
 
 @Service
 @Slf4j
 public class FileStorageService {
     
+    // Content-addressed files live under uploads/blobs/{first 2 hex chars}/{sha256}.jpg
+    private static final String BLOB_DIR = "blobs";
+    
     @Value("${file.upload-dir:uploads}")
     private String uploadDir;
     
+    @Value("${file.content-addressed:false}")
+    private boolean contentAddressed;
+    
+    private final ImageDecodeLimiter decodeLimiter;
     private final ImageResizeService imageResizeService;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ThumbnailPackService thumbnailPackService;
+    // Work done after the caller's transaction has completed needs a transaction of its own
+    private final TransactionTemplate requiresNew;
+    
+    // Striped locks serialising file placement/removal with ref count changes for the same hash
+    private final Object[] blobLocks = new Object[64];
     
-    public FileStorageService(ImageResizeService imageResizeService) {
+    public FileStorageService(ImageDecodeLimiter decodeLimiter,
+                              ImageResizeService imageResizeService,
+                              ImageBlobRepository imageBlobRepository,
+                              ThumbnailPackService thumbnailPackService,
+                              PlatformTransactionManager transactionManager) {
+        this.decodeLimiter = decodeLimiter;
         this.imageResizeService = imageResizeService;
+        this.imageBlobRepository = imageBlobRepository;
+        this.thumbnailPackService = thumbnailPackService;
+        this.requiresNew = new TransactionTemplate(transactionManager);
+        this.requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (int i = 0; i < blobLocks.length; i++) {
+            blobLocks[i] = new Object();
+        }
     }
     
     @PostConstruct
@@ -60,7 +101,8 @@ public class FileStorageService {
     public static class StoredFile {
         private String relativePath;
         private Long fileSize;
-        private String relativePathThumb;    // Thumbnail version path
+        private String sha256;               // Hex SHA-256 of the stored bytes
+        private String relativePathThumb;    // Thumbnail version path (PHOTO versions are generated by ImageDerivativeService)
         private String relativePathMedium;   // Medium version path
     }
     
@@ -77,9 +119,13 @@ public class FileStorageService {
     }
     
     public StoredFile storeFileWithSize(MultipartFile file, String username, FileType fileType) throws IOException {
-        // Validate file type - only JPG/JPEG allowed
+        // Validate declared type - only JPG/JPEG allowed (content is validated while streaming)
         validateImageType(file);
         
+        if (contentAddressed) {
+            return storeBlob(file, username, fileType);
+        }
+        
         // Determine upload path with subdirectory
         Path uploadPath;
         if (username != null && !username.isEmpty()) {
@@ -104,7 +150,6 @@ public class FileStorageService {
         }
         String filename = UUID.randomUUID().toString() + fileExtension;
         
-        // Store file - Transfer the file directly (don't use getInputStream() again)
         Path targetPath = uploadPath.resolve(filename);
         
         // Ensure parent directories exist
@@ -112,29 +157,10 @@ public class FileStorageService {
             Files.createDirectories(targetPath.getParent());
         }
         
-        try {
-            file.transferTo(targetPath.toFile());
-        } catch (IOException e) {
-            log.error("Failed to transfer file to: {}", targetPath, e);
-            throw new IOException("Failed to save file: " + e.getMessage(), e);
-        }
-        
-        // Generate image versions for PHOTO type
-        String relativePathThumb = null;
-        String relativePathMedium = null;
-        
-        if (fileType == FileType.PHOTO) {
-            try {
-                ImageResizeService.ImageVersions versions = imageResizeService.generateImageVersions(targetPath);
-                Path baseUploadDir = Paths.get(uploadDir);
-                relativePathThumb = versions.getThumbRelativePath(baseUploadDir);
-                relativePathMedium = versions.getMediumRelativePath(baseUploadDir);
-                log.info("Generated image versions - thumb: {}, medium: {}", relativePathThumb, relativePathMedium);
-            } catch (IOException e) {
-                log.error("Failed to generate image versions for: {}, continuing with original only", targetPath, e);
-                // Don't fail the upload if resize fails, just log the error
-            }
-        }
+        // Read the upload body exactly once: validate, hash, count and persist in the same pass
+        Path partPath = targetPath.resolveSibling(filename + ".part");
+        IngestResult ingested = ingest(file, partPath);
+        Files.move(partPath, targetPath, StandardCopyOption.ATOMIC_MOVE);
         
         // Return relative path: username/subdir/filename
         String relativePath;
@@ -154,12 +180,166 @@ public class FileStorageService {
         
         return StoredFile.builder()
                 .relativePath(relativePath)
-                .fileSize(file.getSize())
-                .relativePathThumb(relativePathThumb)    // ✅ 返回缩略图路径
-                .relativePathMedium(relativePathMedium)  // ✅ 返回中等尺寸路径
+                .fileSize(ingested.size())
+                .sha256(ingested.sha256())
+                .build();
+    }
+    
+    /**
+     * Content-addressed store: identical bytes uploaded as photos, postcards or avatars share
+     * one file keyed by SHA-256, with a reference count per stored reference.
+     * Versions already generated for known content are returned so they can be reused.
+     */
+    private StoredFile storeBlob(MultipartFile file, String username, FileType fileType) throws IOException {
+        Path incomingDir = Paths.get(uploadDir, BLOB_DIR, "incoming");
+        Files.createDirectories(incomingDir);
+        Path partPath = incomingDir.resolve(UUID.randomUUID() + ".part");
+        IngestResult ingested = ingest(file, partPath);
+        
+        String sha256 = ingested.sha256();
+        String relativePath = blobRelativePath(sha256);
+        Path blobPath = Paths.get(uploadDir).resolve(relativePath);
+        
+        int refCount;
+        synchronized (blobLock(sha256)) {
+            try {
+                if (Files.exists(blobPath)) {
+                    Files.delete(partPath);
+                } else {
+                    Files.createDirectories(blobPath.getParent());
+                    Files.move(partPath, blobPath, StandardCopyOption.ATOMIC_MOVE);
+                }
+            } finally {
+                Files.deleteIfExists(partPath);
+            }
+            refCount = imageBlobRepository.acquireReference(sha256, relativePath, ingested.size());
+        }
+        
+        // Reuse versions generated for an earlier upload of the same content
+        String relativePathThumb = null;
+        String relativePathMedium = null;
+        Path thumbPath = ImageResizeService.versionPath(blobPath, ImageResizeService.THUMB_SUFFIX);
+        Path mediumPath = ImageResizeService.versionPath(blobPath, ImageResizeService.MEDIUM_SUFFIX);
+        boolean thumbExists = Files.exists(thumbPath) || thumbnailPackService.contains(toRelativePath(thumbPath));
+        if (thumbExists && Files.exists(mediumPath)) {
+            relativePathThumb = toRelativePath(thumbPath);
+            relativePathMedium = toRelativePath(mediumPath);
+        }
+        
+        log.info("File stored as blob: {} (type: {}, refs: {}) for user: {}",
+                relativePath, fileType, refCount, username != null ? username : "anonymous");
+        
+        return StoredFile.builder()
+                .relativePath(relativePath)
+                .fileSize(ingested.size())
+                .sha256(sha256)
+                .relativePathThumb(relativePathThumb)
+                .relativePathMedium(relativePathMedium)
                 .build();
     }
     
+    /**
+     * Whether a stored path (original or one of its versions) lives in the content-addressed store
+     */
+    public boolean isBlobPath(String filename) {
+        return filename != null && filename.startsWith(BLOB_DIR + "/");
+    }
+    
+    /**
+     * Drop one reference to a blob; the file and its versions are removed after the
+     * last reference is gone and the surrounding transaction (if any) has committed.
+     */
+    private void releaseBlob(String filename) {
+        String sha256 = blobSha256(filename);
+        Path blobPath = Paths.get(uploadDir).resolve(blobRelativePath(sha256));
+        
+        Integer remaining = imageBlobRepository.releaseReference(sha256);
+        if (remaining == null) {
+            log.warn("Released unknown blob: {}", filename);
+            return;
+        }
+        log.info("Blob reference released: {} (refs left: {})", sha256, remaining);
+        if (remaining > 0 || imageBlobRepository.deleteIfUnreferenced(sha256) == 0) {
+            return;
+        }
+        
+        Runnable purge = () -> {
+            synchronized (blobLock(sha256)) {
+                // A new upload of the same bytes may have re-registered the blob meanwhile
+                if (!imageBlobRepository.existsById(sha256)) {
+                    imageResizeService.deleteImageVersions(blobPath);
+                    thumbnailPackService.remove(toRelativePath(
+                            ImageResizeService.versionPath(blobPath, ImageResizeService.THUMB_SUFFIX)));
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    purge.run();
+                }
+            });
+        } else {
+            purge.run();
+        }
+    }
+    
+    /**
+     * Add a reference to an already stored file, e.g. a postcard created from an uploaded image.
+     * Balances the deleteFile call made when that new reference goes away; no-op for legacy files.
+     * Inside a transaction the reference is released again if that transaction rolls back.
+     */
+    public void retainFile(String filename) throws IOException {
+        if (!isBlobPath(filename)) {
+            return;
+        }
+        String sha256 = blobSha256(filename);
+        String relativePath = blobRelativePath(sha256);
+        Path blobPath = Paths.get(uploadDir).resolve(relativePath);
+        synchronized (blobLock(sha256)) {
+            if (!Files.exists(blobPath)) {
+                throw new RuntimeException("Image file not found: " + filename);
+            }
+            int refCount = imageBlobRepository.acquireReference(sha256, relativePath, Files.size(blobPath));
+            log.info("Blob reference added: {} (refs: {})", sha256, refCount);
+        }
+        // The reference commits on its own; hand it back if the caller's transaction rolls back
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        try {
+                            requiresNew.executeWithoutResult(tx -> releaseBlob(filename));
+                        } catch (RuntimeException e) {
+                            log.error("Failed to release blob reference after rollback: {}", filename, e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+    
+    // blobs/ab/{sha256}.jpg or blobs/ab/{sha256}_thumb.jpg -> {sha256}
+    private String blobSha256(String filename) {
+        String name = Paths.get(filename).getFileName().toString();
+        int end = name.indexOf('_') >= 0 ? name.indexOf('_') : name.indexOf('.');
+        return end >= 0 ? name.substring(0, end) : name;
+    }
+    
+    private String blobRelativePath(String sha256) {
+        return BLOB_DIR + "/" + sha256.substring(0, 2) + "/" + sha256 + ".jpg";
+    }
+    
+    private Object blobLock(String sha256) {
+        return blobLocks[Math.floorMod(sha256.hashCode(), blobLocks.length)];
+    }
+    
+    private String toRelativePath(Path path) {
+        return Paths.get(uploadDir).relativize(path).toString().replace("\\", "/");
+    }
+    
     /**
      * Get subdirectory name based on file type
      */
@@ -182,9 +362,15 @@ public class FileStorageService {
             log.warn("Attempted to delete file with null/empty filename");
             return;
         }
+        if (isBlobPath(filename)) {
+            releaseBlob(filename);
+            return;
+        }
         // filename might be "username/subdir/uuid.jpg" or "username/uuid.jpg" or just "uuid.jpg"
         Path filePath = Paths.get(uploadDir).resolve(filename);
         Files.deleteIfExists(filePath);
+        thumbnailPackService.remove(toRelativePath(
+                ImageResizeService.versionPath(filePath, ImageResizeService.THUMB_SUFFIX)));
         log.info("File deleted: {}", filename);
     }
     
@@ -215,35 +401,71 @@ public class FileStorageService {
         return uploadDir;
     }
     
-    @SuppressWarnings("DuplicatedCode")
-    private void validateImageType(MultipartFile file) {
-        // Check file content (Magic Bytes) - most reliable
-        // IMPORTANT: Use try-with-resources to auto-close the stream
-        // This ensures the next call to file.getInputStream() returns a fresh stream from the beginning
-        try (var is = file.getInputStream()) {
-            byte[] bytes = new byte[3];
-            int bytesRead = is.read(bytes);
-            
-            if (bytesRead != 3) {
-                throw new RuntimeException("File is too small to be a valid image");
-            }
-            
-            // JPG files start with: FF D8 FF
-            if (!(bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xD8 && bytes[2] == (byte) 0xFF)) {
-                throw new RuntimeException("File content is not a valid JPG/JPEG image");
+    /**
+     * Validate and hash the upload, then move it to partPath. The container has already spooled
+     * the multipart body to its temp directory, so the JPEG segment structure (up to the frame
+     * header, refusing oversized dimensions), SHA-256 and byte count come from one read of that
+     * spooled file. Nothing is written on this pass; transferTo then hands the spooled file to
+     * partPath, which the container does with a rename when both live on the same filesystem.
+     * The caller renames partPath into place; on failure the part file is removed.
+     */
+    private IngestResult ingest(MultipartFile file, Path partPath) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        
+        long size;
+        try {
+            try (InputStream in = file.getInputStream();
+                 OutputStream hashOnly = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+                TeeInputStream tee = new TeeInputStream(in, hashOnly);
+                
+                // JPG files start with: FF D8 FF - walk the segments up to the frame header
+                // to also get the declared dimensions without decoding anything
+                Dimension dimensions = JpegHeaderUtil.readDimensions(tee);
+                if (dimensions == null) {
+                    throw new RuntimeException("File content is not a valid JPG/JPEG image");
+                }
+                
+                // Refuse decompression bombs before they reach a decoder
+                decodeLimiter.checkDimensions(dimensions.width, dimensions.height);
+                
+                tee.drain();
+                size = tee.getBytesRead();
             }
+            // Part.write (behind transferTo(File)) renames the spooled file instead of copying it
+            file.transferTo(partPath.toFile());
         } catch (IOException e) {
-            throw new RuntimeException("Failed to read file content", e);
+            Files.deleteIfExists(partPath);
+            log.error("Failed to store upload to: {}", partPath, e);
+            throw new IOException("Failed to save file: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            Files.deleteIfExists(partPath);
+            throw e;
+        }
+        
+        return new IngestResult(size, HexFormat.of().formatHex(digest.digest()));
+    }
+    
+    private record IngestResult(long size, String sha256) {
+    }
+    
+    private void validateImageType(MultipartFile file) {
+        if (file.isEmpty()) {
+            throw new RuntimeException("File is empty");
         }
         
-        // Check content type (secondary validation)
+        // Check content type
         String contentType = file.getContentType();
         if (contentType == null || 
             (!contentType.equals("image/jpeg") && !contentType.equals("image/jpg"))) {
             throw new RuntimeException("Only JPG/JPEG images are allowed");
         }
         
-        // Check file extension (tertiary validation)
+        // Check file extension
         String originalFilename = file.getOriginalFilename();
         if (originalFilename != null) {
             String lowerFilename = originalFilename.toLowerCase();
@@ -0,0 +1,122 @@
+package world.isnap.filmpostcard.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for image decoding.
+ * Decode memory scales with width x height, not file size, so every decode reserves
+ * its decoded pixel count from a shared budget (a weighted semaphore) before it starts.
+ */
+@Service
+@Slf4j
+public class ImageDecodeLimiter {
+
+    // Semaphore permits are counted in blocks of 64K pixels so large budgets fit in an int
+    private static final long PIXELS_PER_PERMIT = 64 * 1024;
+
+    @Value("${image.decode.max-inflight-pixels:100000000}")
+    private long maxInflightPixels;
+
+    @Value("${image.decode.max-image-pixels:120000000}")
+    private long maxImagePixels;
+
+    @Value("${image.decode.acquire-timeout-ms:3000}")
+    private long acquireTimeoutMs;
+
+    @Value("${image.decode.retry-after-seconds:5}")
+    private int retryAfterSeconds;
+
+    private Semaphore budget;
+    private int totalPermits;
+
+    @PostConstruct
+    public void init() {
+        totalPermits = (int) Math.max(1, maxInflightPixels / PIXELS_PER_PERMIT);
+        budget = new Semaphore(totalPermits, true);
+        log.info("Image decode budget: {} pixels in flight, {} pixels max per image", maxInflightPixels, maxImagePixels);
+    }
+
+    /**
+     * Refuse images whose declared dimensions are too large to ever decode (decompression bombs)
+     */
+    public void checkDimensions(int width, int height) {
+        long pixels = (long) width * height;
+        if (width <= 0 || height <= 0 || pixels > maxImagePixels) {
+            throw new RuntimeException(String.format(
+                    "Image dimensions %dx%d exceed the maximum of %d megapixels", width, height, maxImagePixels / 1_000_000));
+        }
+    }
+
+    /**
+     * Reserve decode budget, waiting as long as needed (used by background jobs, which are already queued)
+     */
+    public Permit acquire(long pixels) throws InterruptedException {
+        int permits = permitsFor(pixels);
+        budget.acquire(permits);
+        return new Permit(permits);
+    }
+
+    /**
+     * Reserve decode budget for a request thread, giving up after the configured timeout
+     * @throws DecodeBusyException if the budget stays exhausted for the whole timeout
+     */
+    public Permit tryAcquire(long pixels) {
+        int permits = permitsFor(pixels);
+        try {
+            if (budget.tryAcquire(permits, acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                return new Permit(permits);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.warn("Image decode budget exhausted ({} of {} permits free), rejecting {} pixel decode",
+                budget.availablePermits(), totalPermits, pixels);
+        throw new DecodeBusyException(retryAfterSeconds);
+    }
+
+    private int permitsFor(long pixels) {
+        long permits = (pixels + PIXELS_PER_PERMIT - 1) / PIXELS_PER_PERMIT;
+        // An image bigger than the whole budget may still run, but only on its own
+        return (int) Math.max(1, Math.min(permits, totalPermits));
+    }
+
+    /**
+     * Reserved decode budget, released on close
+     */
+    public class Permit implements AutoCloseable {
+        private final int permits;
+        private boolean released;
+
+        private Permit(int permits) {
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                budget.release(permits);
+            }
+        }
+    }
+
+    /**
+     * Thrown when a request-thread decode cannot get budget in time; maps to 503 + Retry-After
+     */
+    @Getter
+    public static class DecodeBusyException extends RuntimeException {
+        private final int retryAfterSeconds;
+
+        public DecodeBusyException(int retryAfterSeconds) {
+            super("Server is busy processing images, please retry in " + retryAfterSeconds + " seconds");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+}
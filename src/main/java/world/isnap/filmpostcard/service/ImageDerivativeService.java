@@ -0,0 +1,211 @@
+package world.isnap.filmpostcard.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import world.isnap.filmpostcard.entity.Photo;
+import world.isnap.filmpostcard.repository.PhotoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Background pipeline that generates thumb/medium versions of uploaded photos.
+ * The upload request returns as soon as the original is on disk; the photo's
+ * derivativeStatus moves from pending to ready (or failed) when the job finishes.
+ * When the queue is full the photo stays pending and a periodic sweep queues it again.
+ */
+@Service
+@Slf4j
+public class ImageDerivativeService {
+
+    public static final String STATUS_PENDING = "pending";
+    public static final String STATUS_READY = "ready";
+    public static final String STATUS_FAILED = "failed";
+
+    private static final String IMAGE_URL_PREFIX = "/api/images/";
+
+    @Value("${image.derivatives.pool-size:2}")
+    private int poolSize;
+
+    @Value("${image.derivatives.queue-capacity:100}")
+    private int queueCapacity;
+
+    private final ImageResizeService imageResizeService;
+    private final FileStorageService fileStorageService;
+    private final PhotoRepository photoRepository;
+    private final ThumbnailPackService thumbnailPackService;
+
+    private ThreadPoolExecutor executor;
+    // Photos with a job in the queue or running, so the retry sweep doesn't queue them twice
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+    // Start true so pending rows left by a restart are picked up
+    private final AtomicBoolean retryNeeded = new AtomicBoolean(true);
+
+    public ImageDerivativeService(ImageResizeService imageResizeService,
+                                  FileStorageService fileStorageService,
+                                  PhotoRepository photoRepository,
+                                  ThumbnailPackService thumbnailPackService) {
+        this.imageResizeService = imageResizeService;
+        this.fileStorageService = fileStorageService;
+        this.photoRepository = photoRepository;
+        this.thumbnailPackService = thumbnailPackService;
+    }
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "image-derivative-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // A full queue rejects the job (the photo stays pending for the retry sweep); running it
+        // on the upload thread would make the request wait for a decode
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+        log.info("Image derivative pipeline started: {} workers, queue capacity {}", poolSize, queueCapacity);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Image derivative pipeline did not drain in time, {} jobs dropped", executor.shutdownNow().size());
+        }
+    }
+
+    /**
+     * Queue thumb/medium generation for a stored photo
+     * @param photoId Photo record to update when the job finishes
+     * @param relativePath Original file path relative to the upload dir (username/photos/uuid.jpg)
+     */
+    public void submit(Long photoId, String relativePath) {
+        photoRepository.updateDerivativeStatus(photoId, STATUS_PENDING);
+        if (enqueue(photoId, relativePath)) {
+            log.debug("Queued derivatives for photo {} (queue depth: {})", photoId, executor.getQueue().size());
+        } else {
+            log.warn("Derivative queue full, photo {} left pending for retry", photoId);
+        }
+    }
+
+    private boolean enqueue(Long photoId, String relativePath) {
+        if (!queued.add(photoId)) {
+            return true;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    generate(photoId, relativePath);
+                } finally {
+                    queued.remove(photoId);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            queued.remove(photoId);
+            retryNeeded.set(true);
+            return false;
+        }
+    }
+
+    /**
+     * Re-queue photos still pending after their job was rejected (or lost in a restart), as far
+     * as the queue has room. Runs at startup and then only after a rejection.
+     */
+    @Scheduled(fixedDelayString = "${image.derivatives.retry-interval-ms:60000}")
+    public void retryPending() {
+        if (!retryNeeded.getAndSet(false)) {
+            return;
+        }
+        int room = executor.getQueue().remainingCapacity();
+        if (room == 0) {
+            retryNeeded.set(true);
+            return;
+        }
+        try {
+            int requeued = 0;
+            for (Photo photo : photoRepository.findByDerivativeStatusOrderByIdAsc(STATUS_PENDING, Limit.of(room + queued.size()))) {
+                if (queued.contains(photo.getId())) {
+                    continue;
+                }
+                if (photo.getImageUrl() == null || !photo.getImageUrl().startsWith(IMAGE_URL_PREFIX)) {
+                    photoRepository.updateDerivativeStatus(photo.getId(), STATUS_FAILED);
+                    continue;
+                }
+                if (!enqueue(photo.getId(), photo.getImageUrl().substring(IMAGE_URL_PREFIX.length()))) {
+                    break;
+                }
+                requeued++;
+            }
+            if (requeued > 0) {
+                log.info("Re-queued derivatives for {} pending photos", requeued);
+            }
+        } catch (Exception e) {
+            retryNeeded.set(true);
+            log.error("Failed to re-queue pending derivatives", e);
+        }
+    }
+
+    private void generate(Long photoId, String relativePath) {
+        Path originalPath = fileStorageService.getFilePath(relativePath);
+        try {
+            Path baseUploadDir = Paths.get(fileStorageService.getUploadDir());
+            String thumbRelativePath = baseUploadDir.relativize(
+                    ImageResizeService.versionPath(originalPath, ImageResizeService.THUMB_SUFFIX)).toString().replace("\\", "/");
+            Path mediumPath = ImageResizeService.versionPath(originalPath, ImageResizeService.MEDIUM_SUFFIX);
+            
+            // A shared blob may already have its thumbnail packed by an earlier upload
+            String mediumRelativePath;
+            Path thumbPath = null;
+            if (thumbnailPackService.contains(thumbRelativePath) && Files.exists(mediumPath)) {
+                mediumRelativePath = baseUploadDir.relativize(mediumPath).toString().replace("\\", "/");
+            } else {
+                ImageResizeService.ImageVersions versions = imageResizeService.generateImageVersions(originalPath);
+                mediumRelativePath = versions.getMediumRelativePath(baseUploadDir);
+                thumbPath = versions.getThumbPath();
+            }
+            String imageUrlThumb = "/api/images/" + thumbRelativePath;
+            String imageUrlMedium = "/api/images/" + mediumRelativePath;
+
+            int updated = photoRepository.updateDerivatives(photoId, imageUrlThumb, imageUrlMedium, STATUS_READY);
+            if (updated == 0) {
+                // Photo was deleted while the job was queued - don't leave orphaned files behind.
+                // Shared blobs keep their versions; they go away with the blob's last reference.
+                log.info("Photo {} no longer exists, discarding generated versions", photoId);
+                if (!fileStorageService.isBlobPath(relativePath)) {
+                    imageResizeService.deleteImageVersions(originalPath);
+                }
+                return;
+            }
+            
+            // Move the fresh thumbnail into the packed store; the loose file keeps serving if that fails
+            if (thumbPath != null && Files.exists(thumbPath)) {
+                try {
+                    thumbnailPackService.pack(thumbRelativePath, thumbPath);
+                } catch (IOException e) {
+                    log.warn("Failed to pack thumbnail for photo {}: {}", photoId, thumbPath, e);
+                }
+            }
+            log.info("Generated image versions for photo {} - thumb: {}, medium: {}", photoId, imageUrlThumb, imageUrlMedium);
+        } catch (Exception e) {
+            log.error("Failed to generate image versions for photo {}: {}", photoId, originalPath, e);
+            photoRepository.updateDerivativeStatus(photoId, STATUS_FAILED);
+        }
+    }
+}
@@ -1,16 +1,30 @@
 package world.isnap.filmpostcard.service;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.coobird.thumbnailator.Thumbnails;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
 import org.springframework.stereotype.Service;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.UUID;
 
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class ImageResizeService {
     
     // Image size configurations
@@ -19,8 +33,16 @@ public class ImageResizeService {
     private static final int AVATAR_SIZE = 200;      // Avatar size (square, 200x200px)
     private static final float QUALITY = 0.85f;       // JPEG quality (0.0 - 1.0)
     
+    // Version file name suffixes: {base}_thumb.jpg, {base}_medium.jpg, {base}_compressed.jpg
+    public static final String THUMB_SUFFIX = "thumb";
+    public static final String MEDIUM_SUFFIX = "medium";
+    public static final String AVATAR_SUFFIX = "compressed";
+    
+    private final ImageDecodeLimiter decodeLimiter;
+    
     /**
-     * Generate multiple versions of an image
+     * Generate multiple versions of an image.
+     * The original is decoded once and the size ladder is built as a cascade: original -> medium -> thumb.
      * @param originalPath Path to the original image file
      * @return ImageVersions containing paths to all generated versions
      */
@@ -29,32 +51,41 @@ public class ImageResizeService {
             throw new IOException("Original image file does not exist: " + originalPath);
         }
         
-        log.info("Generating image versions for: {}", originalPath);
-        
         // Generate file names for different versions
-        String originalFileName = originalPath.getFileName().toString();
-        String baseName = originalFileName.substring(0, originalFileName.lastIndexOf('.'));
-        String extension = originalFileName.substring(originalFileName.lastIndexOf('.'));
+        Path thumbPath = versionPath(originalPath, THUMB_SUFFIX);
+        Path mediumPath = versionPath(originalPath, MEDIUM_SUFFIX);
+        
+        // Content-addressed originals may already have their versions from an earlier upload
+        if (Files.exists(thumbPath) && Files.exists(mediumPath)) {
+            log.info("Reusing existing image versions for: {}", originalPath);
+            return ImageVersions.builder()
+                    .originalPath(originalPath)
+                    .thumbPath(thumbPath)
+                    .mediumPath(mediumPath)
+                    .build();
+        }
         
-        Path parentDir = originalPath.getParent();
-        Path thumbPath = parentDir.resolve(baseName + "_thumb" + extension);
-        Path mediumPath = parentDir.resolve(baseName + "_medium" + extension);
+        log.info("Generating image versions for: {}", originalPath);
         
-        try {
-            // Generate thumbnail (300px width)
-            Thumbnails.of(originalPath.toFile())
-                    .width(THUMB_WIDTH)
-                    .outputQuality(QUALITY)
-                    .toFile(thumbPath.toFile());
-            log.info("Generated thumbnail: {} (size: {} bytes)", thumbPath, Files.size(thumbPath));
-            
-            // Generate medium preview (1280px width)
-            Thumbnails.of(originalPath.toFile())
+        // Background job: wait for decode budget rather than failing
+        try (DecodedImage source = readSubsampled(originalPath, MEDIUM_WIDTH, 0, true)) {
+            // Decode the original once (subsampled to what the medium needs) and downscale to medium (1280px width)
+            BufferedImage medium = Thumbnails.of(source.getImage())
                     .width(MEDIUM_WIDTH)
-                    .outputQuality(QUALITY)
-                    .toFile(mediumPath.toFile());
+                    .asBufferedImage();
+            writeJpeg(medium, mediumPath);
             log.info("Generated medium: {} (size: {} bytes)", mediumPath, Files.size(mediumPath));
             
+            // Cascade: build the thumbnail (300px width) from the in-memory medium image,
+            // not from the original file. The default resizer is still progressive bilinear
+            // for this >2x reduction, so output quality matches resizing from the original.
+            BufferedImage thumb = Thumbnails.of(medium)
+                    .width(THUMB_WIDTH)
+                    .asBufferedImage();
+            medium.flush();
+            writeJpeg(thumb, thumbPath);
+            log.info("Generated thumbnail: {} (size: {} bytes)", thumbPath, Files.size(thumbPath));
+            
             return ImageVersions.builder()
                     .originalPath(originalPath)
                     .thumbPath(thumbPath)
@@ -78,47 +109,55 @@ public class ImageResizeService {
             return;
         }
         
-        String originalFileName = originalPath.getFileName().toString();
-        String baseName = originalFileName.substring(0, originalFileName.lastIndexOf('.'));
-        String extension = originalFileName.substring(originalFileName.lastIndexOf('.'));
-        
-        Path parentDir = originalPath.getParent();
-        Path thumbPath = parentDir.resolve(baseName + "_thumb" + extension);
-        Path mediumPath = parentDir.resolve(baseName + "_medium" + extension);
-        
         deleteIfExists(originalPath);
-        deleteIfExists(thumbPath);
-        deleteIfExists(mediumPath);
+        deleteIfExists(versionPath(originalPath, THUMB_SUFFIX));
+        deleteIfExists(versionPath(originalPath, MEDIUM_SUFFIX));
+        deleteIfExists(versionPath(originalPath, AVATAR_SUFFIX));
         
         log.info("Deleted image versions for: {}", originalPath);
     }
     
     /**
      * Compress and resize avatar to 200x200px square
-     * @param originalPath Path to the original avatar image
+     * @param originalPath Path to the original avatar image (deleted once compressed)
      * @return Path to the compressed avatar
      */
     public Path compressAvatar(Path originalPath) throws IOException {
+        Path compressedPath = createAvatarVersion(originalPath);
+        
+        // Delete original file to save space
+        deleteIfExists(originalPath);
+        
+        return compressedPath;
+    }
+    
+    /**
+     * Create the 200x200px avatar version next to the original, keeping the original.
+     * An existing avatar version (same content-addressed original) is reused.
+     * @param originalPath Path to the original avatar image
+     * @return Path to the compressed avatar
+     */
+    public Path createAvatarVersion(Path originalPath) throws IOException {
         if (!Files.exists(originalPath)) {
             throw new IOException("Original avatar file does not exist: " + originalPath);
         }
         
-        log.info("Compressing avatar: {}", originalPath);
-        
         // Generate compressed avatar filename
-        String originalFileName = originalPath.getFileName().toString();
-        String baseName = originalFileName.substring(0, originalFileName.lastIndexOf('.'));
-        String extension = originalFileName.substring(originalFileName.lastIndexOf('.'));
+        Path compressedPath = versionPath(originalPath, AVATAR_SUFFIX);
+        if (Files.exists(compressedPath)) {
+            log.info("Reusing existing compressed avatar: {}", compressedPath);
+            return compressedPath;
+        }
         
-        Path parentDir = originalPath.getParent();
-        Path compressedPath = parentDir.resolve(baseName + "_compressed" + extension);
+        log.info("Compressing avatar: {}", originalPath);
         
-        try {
-            // Compress avatar to 200x200px square with center crop
-            Thumbnails.of(originalPath.toFile())
+        // Runs on the request thread: give up with DecodeBusyException (503) if the decode budget is exhausted
+        try (DecodedImage source = readSubsampled(originalPath, AVATAR_SIZE, AVATAR_SIZE, false)) {
+            // Compress avatar to fit 200x200px, never holding the full-resolution raster
+            BufferedImage avatar = Thumbnails.of(source.getImage())
                     .size(AVATAR_SIZE, AVATAR_SIZE)
-                    .outputQuality(QUALITY)
-                    .toFile(compressedPath.toFile());
+                    .asBufferedImage();
+            writeJpeg(avatar, compressedPath);
             
             long originalSize = Files.size(originalPath);
             long compressedSize = Files.size(compressedPath);
@@ -127,9 +166,6 @@ public class ImageResizeService {
                     formatFileSize(compressedSize),
                     (100 - (compressedSize * 100 / originalSize)));
             
-            // Delete original file to save space
-            deleteIfExists(originalPath);
-            
             return compressedPath;
             
         } catch (IOException e) {
@@ -139,6 +175,154 @@ public class ImageResizeService {
         }
     }
     
+    /**
+     * Create a resized copy of an image at the given width (on-demand variants).
+     * Runs on the request thread, so it fails fast with DecodeBusyException when the decode budget is exhausted.
+     * @param originalPath Source image
+     * @param targetPath Where to write the variant (written atomically)
+     * @param width Target width in px
+     */
+    public void createWidthVariant(Path originalPath, Path targetPath, int width) throws IOException {
+        if (!Files.exists(originalPath)) {
+            throw new IOException("Original image file does not exist: " + originalPath);
+        }
+        try (DecodedImage source = readSubsampled(originalPath, width, 0, false)) {
+            BufferedImage variant = Thumbnails.of(source.getImage())
+                    .width(width)
+                    .asBufferedImage();
+            writeJpeg(variant, targetPath);
+            log.info("Generated {}px variant: {} (size: {} bytes)", width, targetPath, Files.size(targetPath));
+        }
+    }
+    
+    /**
+     * Width of the image as displayed, i.e. after EXIF orientation (a portrait photo stored
+     * landscape with a 90-degree tag reports its stored height). Reads header and metadata only.
+     * @return width in px, or 0 if the image can't be read
+     */
+    public int readDisplayWidth(Path path) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(path.toFile())) {
+            if (iis == null) {
+                return 0;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                return 0;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, false);
+                Orientation orientation = ExifUtils.getExifOrientation(reader, 0);
+                boolean rotated = orientation == Orientation.LEFT_TOP || orientation == Orientation.RIGHT_TOP
+                        || orientation == Orientation.RIGHT_BOTTOM || orientation == Orientation.LEFT_BOTTOM;
+                return rotated ? reader.getHeight(0) : reader.getWidth(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    /**
+     * Path of a derived version next to the original: {base}_{suffix}{ext}
+     */
+    public static Path versionPath(Path originalPath, String suffix) {
+        String originalFileName = originalPath.getFileName().toString();
+        String baseName = originalFileName.substring(0, originalFileName.lastIndexOf('.'));
+        String extension = originalFileName.substring(originalFileName.lastIndexOf('.'));
+        return originalPath.resolveSibling(baseName + "_" + suffix + extension);
+    }
+    
+    /**
+     * Decode an image using ImageIO source subsampling, so only every Nth pixel/row is kept.
+     * N is picked from the header dimensions such that the decoded raster stays at least
+     * twice the target size; the progressive resize afterwards smooths out subsampling aliasing.
+     * EXIF orientation is applied the same way Thumbnails.of(File) does.
+     * The decoded pixel count is reserved from the decode budget before any pixel data is read,
+     * and stays reserved until the returned image is closed.
+     * @param path Image file
+     * @param targetWidth Target width in px
+     * @param targetHeight Target height in px, or 0 if only the width is constrained
+     * @param waitForBudget true to block until budget is available, false to fail fast with DecodeBusyException
+     */
+    private DecodedImage readSubsampled(Path path, int targetWidth, int targetHeight, boolean waitForBudget) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(path.toFile())) {
+            if (iis == null) {
+                throw new IOException("Unable to open image: " + path);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + path);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, false);
+                
+                Orientation orientation = ExifUtils.getExifOrientation(reader, 0);
+                boolean rotated = orientation == Orientation.LEFT_TOP || orientation == Orientation.RIGHT_TOP
+                        || orientation == Orientation.RIGHT_BOTTOM || orientation == Orientation.LEFT_BOTTOM;
+                int width = rotated ? reader.getHeight(0) : reader.getWidth(0);
+                int height = rotated ? reader.getWidth(0) : reader.getHeight(0);
+                decodeLimiter.checkDimensions(width, height);
+                
+                int factor = Math.max(1, width / (targetWidth * 2));
+                if (targetHeight > 0) {
+                    factor = Math.max(1, Math.min(factor, height / (targetHeight * 2)));
+                }
+                
+                long decodedPixels = (long) ((width + factor - 1) / factor) * ((height + factor - 1) / factor);
+                ImageDecodeLimiter.Permit permit = waitForBudget
+                        ? acquireBlocking(decodedPixels)
+                        : decodeLimiter.tryAcquire(decodedPixels);
+                try {
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(factor, factor, 0, 0);
+                    BufferedImage image = reader.read(0, param);
+                    log.debug("Decoded {} at 1/{} ({}x{} -> {}x{})", path.getFileName(), factor,
+                            width, height, image.getWidth(), image.getHeight());
+                    
+                    if (orientation != null && orientation != Orientation.TOP_LEFT) {
+                        image = ExifFilterUtils.getFilterForOrientation(orientation).apply(image);
+                    }
+                    return new DecodedImage(image, permit);
+                } catch (IOException | RuntimeException e) {
+                    permit.close();
+                    throw e;
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+    
+    private ImageDecodeLimiter.Permit acquireBlocking(long pixels) throws IOException {
+        try {
+            return decodeLimiter.acquire(pixels);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for image decode budget", e);
+        }
+    }
+    
+    /**
+     * Encode an already-resized image as JPEG at the standard quality
+     */
+    private void writeJpeg(BufferedImage image, Path target) throws IOException {
+        // Write to a temp file and rename, so concurrent readers never see a partial version
+        Path tempPath = target.resolveSibling(target.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(tempPath)) {
+                Thumbnails.of(image)
+                        .scale(1.0)
+                        .outputFormat("jpg")
+                        .outputQuality(QUALITY)
+                        .toOutputStream(out);
+            }
+            Files.move(tempPath, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            deleteIfExists(tempPath);
+        }
+    }
+    
     /**
      * Format file size for logging
      */
@@ -158,6 +342,22 @@ public class ImageResizeService {
         }
     }
     
+    /**
+     * Decoded image plus the decode budget it holds; closing releases both
+     */
+    @lombok.Getter
+    @lombok.RequiredArgsConstructor
+    private static class DecodedImage implements AutoCloseable {
+        private final BufferedImage image;
+        private final ImageDecodeLimiter.Permit permit;
+        
+        @Override
+        public void close() {
+            image.flush();
+            permit.close();
+        }
+    }
+    
     @lombok.Data
     @lombok.Builder
     public static class ImageVersions {
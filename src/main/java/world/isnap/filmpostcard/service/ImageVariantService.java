@@ -0,0 +1,232 @@
+package world.isnap.filmpostcard.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Width-parameterised image variants generated on first request.
+ * Requested widths are snapped to a fixed ladder; variants are kept in an on-disk cache
+ * bounded by total size with least-recently-used eviction, and concurrent requests for
+ * the same missing variant share a single generation.
+ */
+@Service
+@Slf4j
+public class ImageVariantService {
+
+    @Value("${image.variants.widths:160,320,640,960,1280,1920}")
+    private int[] widths;
+
+    @Value("${image.variants.cache-dir:variant-cache}")
+    private String cacheDir;
+
+    @Value("${image.variants.cache-max-size:1GB}")
+    private DataSize cacheMaxSize;
+
+    private final FileStorageService fileStorageService;
+    private final ImageResizeService imageResizeService;
+
+    // Cache index: variant file name -> size and last access time
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong cacheBytes = new AtomicLong();
+
+    // Single-flight: variant file name -> generation in progress
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    public ImageVariantService(FileStorageService fileStorageService, ImageResizeService imageResizeService) {
+        this.fileStorageService = fileStorageService;
+        this.imageResizeService = imageResizeService;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Arrays.sort(widths);
+        if (!Paths.get(cacheDir).isAbsolute()) {
+            cacheDir = Paths.get(".").resolve(cacheDir).toAbsolutePath().normalize().toString();
+        }
+        Path dir = Paths.get(cacheDir);
+        Files.createDirectories(dir);
+
+        // Rebuild the index from what survived the last run; file mtime stands in for last access
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(file -> {
+                try {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(".tmp")) {
+                        Files.deleteIfExists(file);
+                        return;
+                    }
+                    long size = Files.size(file);
+                    entries.put(name, new CacheEntry(size, Files.getLastModifiedTime(file).toMillis()));
+                    cacheBytes.addAndGet(size);
+                } catch (IOException e) {
+                    log.warn("Skipping unreadable variant cache file: {}", file, e);
+                }
+            });
+        }
+        log.info("Image variant cache: {} ({} entries, {} bytes, max {}), widths {}",
+                dir, entries.size(), cacheBytes.get(), cacheMaxSize, Arrays.toString(widths));
+    }
+
+    /**
+     * Snap a requested width to the smallest ladder width that is at least as wide (capped at the largest)
+     */
+    public int snapWidth(int requestedWidth) {
+        for (int width : widths) {
+            if (width >= requestedWidth) {
+                return width;
+            }
+        }
+        return widths[widths.length - 1];
+    }
+
+    /**
+     * Resolve the file to serve for an image at a requested width
+     * @param relativePath Original image path relative to the upload dir
+     * @param requestedWidth Requested width in px
+     * @return variant file, or the original if it is not wider than the snapped width; null if the original doesn't exist
+     */
+    public Path getVariant(String relativePath, int requestedWidth) throws IOException {
+        Path originalPath = fileStorageService.getFilePath(relativePath);
+        if (!Files.isRegularFile(originalPath)) {
+            return null;
+        }
+
+        int width = snapWidth(requestedWidth);
+        String key = variantFileName(relativePath, width);
+        Path variantPath = Paths.get(cacheDir, key);
+
+        CacheEntry entry = entries.get(key);
+        if (entry != null && Files.exists(variantPath)) {
+            entry.lastAccess = System.currentTimeMillis();
+            return variantPath;
+        }
+
+        // Never upscale: originals no wider than the snapped width are served as they are.
+        // Variants are width-constrained, so compare against the displayed (EXIF-oriented) width.
+        int originalWidth = imageResizeService.readDisplayWidth(originalPath);
+        if (originalWidth <= 0 || width >= originalWidth) {
+            return originalPath;
+        }
+
+        CompletableFuture<Path> generation = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(key, generation);
+        if (existing != null) {
+            // Another request is already generating this variant - wait for its result
+            return join(existing);
+        }
+        try {
+            // A generation may have finished between the cache check above and winning the slot
+            CacheEntry generated = entries.get(key);
+            if (generated != null && Files.exists(variantPath)) {
+                generated.lastAccess = System.currentTimeMillis();
+                generation.complete(variantPath);
+                return variantPath;
+            }
+            imageResizeService.createWidthVariant(originalPath, variantPath, width);
+            long size = Files.size(variantPath);
+            // Replacing an entry whose file had gone missing: count only the difference
+            CacheEntry replaced = entries.put(key, new CacheEntry(size, System.currentTimeMillis()));
+            cacheBytes.addAndGet(replaced != null ? size - replaced.size : size);
+            generation.complete(variantPath);
+        } catch (IOException | RuntimeException e) {
+            generation.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+
+        if (cacheBytes.get() > cacheMaxSize.toBytes()) {
+            evict();
+        }
+        return variantPath;
+    }
+
+    /**
+     * Drop least recently used variants until the cache is back under 90% of its size limit
+     */
+    private synchronized void evict() {
+        long target = cacheMaxSize.toBytes() * 9 / 10;
+        if (cacheBytes.get() <= target) {
+            return;
+        }
+        List<Map.Entry<String, CacheEntry>> byAge = new ArrayList<>(entries.entrySet());
+        byAge.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+
+        int evicted = 0;
+        for (Map.Entry<String, CacheEntry> candidate : byAge) {
+            if (cacheBytes.get() <= target) {
+                break;
+            }
+            if (inFlight.containsKey(candidate.getKey()) || !entries.remove(candidate.getKey(), candidate.getValue())) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(Paths.get(cacheDir, candidate.getKey()));
+            } catch (IOException e) {
+                log.warn("Failed to delete cached variant: {}", candidate.getKey(), e);
+            }
+            cacheBytes.addAndGet(-candidate.getValue().size);
+            evicted++;
+        }
+        log.info("Evicted {} cached variants, cache now {} bytes", evicted, cacheBytes.get());
+    }
+
+    private Path join(CompletableFuture<Path> generation) throws IOException {
+        try {
+            return generation.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("Variant generation failed", cause);
+        }
+    }
+
+    // Flat cache layout: {sha1 of original path}_w{width}.jpg
+    private String variantFileName(String relativePath, int width) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(relativePath.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash) + "_w" + width + ".jpg";
+        } catch (NoSuchAlgorithmException e) {
+            throw new UncheckedIOException(new IOException("SHA-1 not available", e));
+        }
+    }
+
+    private static class CacheEntry {
+        private final long size;
+        private volatile long lastAccess;
+
+        private CacheEntry(long size, long lastAccess) {
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
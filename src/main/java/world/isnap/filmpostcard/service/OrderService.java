@@ -4,11 +4,14 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import world.isnap.filmpostcard.dto.CursorPageResponse;
 import world.isnap.filmpostcard.dto.OrderRequest;
 import world.isnap.filmpostcard.dto.OrderResponse;
 import world.isnap.filmpostcard.entity.Order;
 import world.isnap.filmpostcard.repository.OrderRepository;
+import world.isnap.filmpostcard.util.CursorUtil;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -52,6 +55,22 @@ public class OrderService {
                 .collect(Collectors.toList());
     }
     
+    public CursorPageResponse<OrderResponse> getOrdersByCursor(String cursor, Integer limit) {
+        int size = CursorUtil.clampLimit(limit);
+        CursorUtil.Cursor after = CursorUtil.decode(cursor);
+        List<Order> orders = new ArrayList<>(after == null
+                ? orderRepository.findFirstPage(size + 1)
+                : orderRepository.findPageAfter(after.timestamp(), after.id(), size + 1));
+        String nextCursor = CursorUtil.nextCursor(orders, size, Order::getCreatedAt, Order::getId);
+        
+        return CursorPageResponse.<OrderResponse>builder()
+                .items(orders.stream().map(this::toResponse).collect(Collectors.toList()))
+                .nextCursor(nextCursor)
+                .hasNext(nextCursor != null)
+                .limit(size)
+                .build();
+    }
+    
     public List<OrderResponse> getOrdersByPostcardId(Long postcardId) {
         return orderRepository.findByPostcardIdOrderByCreatedAtDesc(postcardId)
                 .stream()
@@ -77,7 +96,7 @@ public class OrderService {
         }
     }
     
-    private OrderResponse toResponse(Order order) {
+    OrderResponse toResponse(Order order) {
         return OrderResponse.builder()
                 .id(order.getId())
                 .postcardId(order.getPostcardId())
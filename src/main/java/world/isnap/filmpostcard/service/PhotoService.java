@@ -1,16 +1,26 @@
 package world.isnap.filmpostcard.service;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import world.isnap.filmpostcard.dto.CursorPageResponse;
+import world.isnap.filmpostcard.dto.MovePhotosRequest;
 import world.isnap.filmpostcard.dto.PagedPhotoResponse;
-import world.isnap.filmpostcard.dto.PhotoListResponse;
 import world.isnap.filmpostcard.dto.PhotoResponse;
+import world.isnap.filmpostcard.dto.PhotoRow;
 import world.isnap.filmpostcard.dto.PhotoUploadRequest;
 import world.isnap.filmpostcard.dto.UpdatePhotoRequest;
 import world.isnap.filmpostcard.entity.Album;
@@ -18,13 +28,19 @@ import world.isnap.filmpostcard.entity.Photo;
 import world.isnap.filmpostcard.entity.User;
 import world.isnap.filmpostcard.repository.AlbumRepository;
 import world.isnap.filmpostcard.repository.PhotoRepository;
-import world.isnap.filmpostcard.repository.UserRepository;
+import world.isnap.filmpostcard.util.CursorUtil;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
@@ -32,18 +48,23 @@ import java.util.stream.Collectors;
 public class PhotoService {
     
     private final PhotoRepository photoRepository;
-    private final UserRepository userRepository;
+    private final UserCacheService userCacheService;
     private final FileStorageService fileStorageService;
     private final StorageQuotaService storageQuotaService;
     private final AlbumRepository albumRepository;
+    private final ThumbnailCacheService thumbnailCacheService;
+    private final UserCounterService userCounterService;
+    private final AlbumCacheService albumCacheService;
+    private final PlatformTransactionManager transactionManager;
     
     private static final int MAX_PHOTOS_PER_USER = 50;
+    private static final int MAX_PHOTOS_PER_MOVE = 1000;
     
     @Transactional
     public PhotoResponse uploadPhoto(String username, PhotoUploadRequest request) {
         log.info("uploadPhoto called - username: {}, imageUrl: {}", username, request.getImageUrl());
         
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
         // Idempotency check: if photo with same imageUrl already exists, update it instead of creating new
@@ -55,7 +76,7 @@ public class PhotoService {
         }
         
         // Check photo limit only for new photos
-        Long photoCount = photoRepository.countByUser(user);
+        long photoCount = user.getPhotoCount() != null ? user.getPhotoCount() : 0L;
         if (photoCount >= MAX_PHOTOS_PER_USER) {
             throw new RuntimeException("Photo limit reached. Maximum " + MAX_PHOTOS_PER_USER + " photos per user.");
         }
@@ -110,6 +131,8 @@ public class PhotoService {
                 .imageUrl(request.getImageUrl())
                 .imageUrlThumb(request.getImageUrlThumb())
                 .imageUrlMedium(request.getImageUrlMedium())
+                .derivativeStatus(request.getImageUrlThumb() != null && request.getImageUrlMedium() != null
+                        ? ImageDerivativeService.STATUS_READY : null)
                 .title(request.getTitle())
                 .description(request.getDescription())
                 .location(request.getLocation())
@@ -125,6 +148,10 @@ public class PhotoService {
                 photo.getTakenAt(), album != null ? album.getName() : "none");
         
         Photo savedPhoto = photoRepository.save(photo);
+        userCounterService.adjustPhotos(user, 1);
+        if (album != null) {
+            albumCacheService.invalidate(user.getId());
+        }
         log.info("New photo created: {} by user: {}", savedPhoto.getId(), user.getUsername());
         
         return toPhotoResponse(savedPhoto);
@@ -168,6 +195,7 @@ public class PhotoService {
             }
         }
         photo.setAlbum(album);
+        albumCacheService.invalidate(photo.getUser().getId());
         
         Photo updatedPhoto = photoRepository.save(photo);
         log.info("Photo {} updated successfully", updatedPhoto.getId());
@@ -175,20 +203,27 @@ public class PhotoService {
         return toPhotoResponse(updatedPhoto);
     }
     
+    /**
+     * Find the user's photo for an image URL (re-upload of identical content)
+     */
     @Transactional(readOnly = true)
-    public PhotoListResponse getUserPhotos(String username) {
-        User user = userRepository.findByUsername(username)
+    public Optional<PhotoResponse> findPhotoByImageUrl(String username, String imageUrl) {
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
-        
-        List<Photo> photos = photoRepository.findByUserOrderByCreatedAtDesc(user);
-        List<PhotoResponse> photoResponses = photos.stream()
-                .map(this::toPhotoResponse)
-                .collect(Collectors.toList());
-        
-        return PhotoListResponse.builder()
-                .photos(photoResponses)
-                .total(photoResponses.size())
-                .build();
+        return photoRepository.findByUserAndImageUrl(user, imageUrl).map(this::toPhotoResponse);
+    }
+    
+    /**
+     * Legacy unpaginated listing ({"photos": [...], "total": n}) for app versions that never send
+     * page params. The returned body serializes itself: when the message converter writes it, rows
+     * come from a database cursor and each one goes straight to the Jackson generator, so memory
+     * stays constant regardless of library size. The user is resolved here, so an unknown username
+     * still fails before anything is written.
+     */
+    public UserPhotoStream getUserPhotos(String username) {
+        User user = userCacheService.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found: " + username));
+        return new UserPhotoStream(user.getId());
     }
     
     /**
@@ -200,7 +235,7 @@ public class PhotoService {
      */
     @Transactional(readOnly = true)
     public PagedPhotoResponse getUserPhotosWithPagination(String username, int page, int pageSize) {
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
         // Validate pagination parameters
@@ -208,11 +243,11 @@ public class PhotoService {
         if (pageSize < 1) pageSize = 20;
         if (pageSize > 100) pageSize = 100; // Max 100 photos per page
         
-        // Create pageable (0-based for Spring Data)
-        Pageable pageable = PageRequest.of(page - 1, pageSize, Sort.by(Sort.Direction.DESC, "createdAt"));
+        // Create pageable (0-based for Spring Data); ordering is part of the query
+        Pageable pageable = PageRequest.of(page - 1, pageSize);
         
         // Query with pagination
-        Page<Photo> photoPage = photoRepository.findByUserOrderByCreatedAtDesc(user, pageable);
+        Page<PhotoRow> photoPage = photoRepository.findRowsByUser(user.getId(), pageable);
         
         // Convert to response DTOs
         List<PhotoResponse> photoResponses = photoPage.getContent().stream()
@@ -230,9 +265,35 @@ public class PhotoService {
                 .build();
     }
     
+    /**
+     * Get user photos by keyset cursor (infinite scroll)
+     * @param cursor nextCursor from the previous page, or null for the newest photos
+     * @param limit Number of photos per page (default: 20, max: 100)
+     * @return Photos after the cursor; never runs a COUNT query
+     */
+    @Transactional(readOnly = true)
+    public CursorPageResponse<PhotoResponse> getUserPhotosByCursor(String username, String cursor, Integer limit) {
+        User user = userCacheService.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found: " + username));
+        
+        int size = CursorUtil.clampLimit(limit);
+        CursorUtil.Cursor after = CursorUtil.decode(cursor);
+        List<PhotoRow> photos = new ArrayList<>(after == null
+                ? photoRepository.findFirstPageByUser(user.getId(), Limit.of(size + 1))
+                : photoRepository.findPageByUserAfter(user.getId(), after.timestamp(), after.id(), Limit.of(size + 1)));
+        String nextCursor = CursorUtil.nextCursor(photos, size, PhotoRow::createdAt, PhotoRow::id);
+        
+        return CursorPageResponse.<PhotoResponse>builder()
+                .items(photos.stream().map(this::toPhotoResponse).collect(Collectors.toList()))
+                .nextCursor(nextCursor)
+                .hasNext(nextCursor != null)
+                .limit(size)
+                .build();
+    }
+    
     @Transactional
     public void deletePhoto(String username, String photoId) {
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
         Long photoIdLong;
@@ -260,9 +321,25 @@ public class PhotoService {
             
             // Delete physical file
             fileStorageService.deleteFile(filename);
+            // After the blob purge (also afterCommit), so a read in between can't re-cache the bytes
+            String thumbFilename = photo.getImageUrlThumb() != null
+                    ? photo.getImageUrlThumb().replace("/api/images/", "") : null;
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    thumbnailCacheService.invalidate(filename);
+                    if (thumbFilename != null) {
+                        thumbnailCacheService.invalidate(thumbFilename);
+                    }
+                }
+            });
             
             // Delete database record
             photoRepository.delete(photo);
+            userCounterService.adjustPhotos(user, -1);
+            if (photo.getAlbum() != null) {
+                albumCacheService.invalidate(user.getId());
+            }
             
             // Update user's storage usage
             if (fileSize > 0) {
@@ -276,9 +353,61 @@ public class PhotoService {
         }
     }
     
+    /**
+     * Move photos into an album (or out of any album) with one UPDATE.
+     * All-or-nothing: if any id is unknown or owned by someone else, nothing moves.
+     * @return number of photos moved
+     */
+    @Transactional
+    public int movePhotos(String username, MovePhotosRequest request) {
+        User user = userCacheService.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("User not found: " + username));
+        
+        if (request.getPhotoIds() == null || request.getPhotoIds().isEmpty()) {
+            throw new RuntimeException("No photos to move");
+        }
+        if (request.getPhotoIds().size() > MAX_PHOTOS_PER_MOVE) {
+            throw new RuntimeException("Too many photos. Maximum " + MAX_PHOTOS_PER_MOVE + " per request.");
+        }
+        
+        Set<Long> photoIds = new HashSet<>();
+        for (String photoId : request.getPhotoIds()) {
+            try {
+                photoIds.add(Long.parseLong(photoId));
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid photo ID: " + photoId);
+            }
+        }
+        
+        int moved;
+        LocalDateTime now = LocalDateTime.now();
+        if (request.getAlbumId() == null || request.getAlbumId().isEmpty()) {
+            moved = photoRepository.removeFromAlbum(user.getId(), photoIds, now);
+        } else {
+            Long albumIdLong;
+            try {
+                albumIdLong = Long.parseLong(request.getAlbumId());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid album ID: " + request.getAlbumId());
+            }
+            Album album = albumRepository.findByIdAndUser(albumIdLong, user)
+                    .orElseThrow(() -> new RuntimeException("Album not found or not owned by user"));
+            moved = photoRepository.moveToAlbum(user.getId(), photoIds, album, now);
+        }
+        
+        if (moved != photoIds.size()) {
+            // Rolls back the UPDATE
+            throw new RuntimeException("Some photos were not found or are not yours");
+        }
+        
+        albumCacheService.invalidate(user.getId());
+        log.info("Moved {} photos to album {} for user {}", moved, request.getAlbumId(), username);
+        return moved;
+    }
+    
     @Transactional
     public PhotoResponse updatePhoto(String username, String photoId, UpdatePhotoRequest request) {
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
         Long photoIdLong;
@@ -314,6 +443,7 @@ public class PhotoService {
                         .orElseThrow(() -> new RuntimeException("Album not found or not owned by user"));
                 photo.setAlbum(album);
             }
+            albumCacheService.invalidate(user.getId());
         }
         
         // Update other metadata if provided
@@ -349,12 +479,32 @@ public class PhotoService {
         return toPhotoResponse(updatedPhoto);
     }
     
+    private PhotoResponse toPhotoResponse(PhotoRow row) {
+        return PhotoResponse.builder()
+                .id(String.valueOf(row.id()))
+                .imageUrl(row.imageUrl())
+                .imageUrlThumb(row.imageUrlThumb())
+                .imageUrlMedium(row.imageUrlMedium())
+                .derivativeStatus(row.derivativeStatus())
+                .title(row.title())
+                .description(row.description())
+                .location(row.location())
+                .camera(row.camera())
+                .lens(row.lens())
+                .settings(row.settings())
+                .takenAt(row.takenAt() != null ? row.takenAt().toString() : null)
+                .createdAt(row.createdAt().toString())
+                .albumId(row.albumId() != null ? String.valueOf(row.albumId()) : null)
+                .build();
+    }
+    
     private PhotoResponse toPhotoResponse(Photo photo) {
         return PhotoResponse.builder()
                 .id(String.valueOf(photo.getId()))
                 .imageUrl(photo.getImageUrl())
                 .imageUrlThumb(photo.getImageUrlThumb())
                 .imageUrlMedium(photo.getImageUrlMedium())
+                .derivativeStatus(photo.getDerivativeStatus())
                 .title(photo.getTitle())
                 .description(photo.getDescription())
                 .location(photo.getLocation())
@@ -366,4 +516,44 @@ public class PhotoService {
                 .albumId(photo.getAlbum() != null ? String.valueOf(photo.getAlbum().getId()) : null)
                 .build();
     }
+    
+    public class UserPhotoStream implements JsonSerializable {
+        
+        private final Long userId;
+        
+        private UserPhotoStream(Long userId) {
+            this.userId = userId;
+        }
+        
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider serializers) {
+            // Serialization runs after the controller returns, so the cursor needs its own transaction
+            TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+            readOnly.setReadOnly(true);
+            readOnly.executeWithoutResult(status -> {
+                try (Stream<PhotoRow> rows = photoRepository.streamRowsByUser(userId)) {
+                    generator.writeStartObject();
+                    generator.writeArrayFieldStart("photos");
+                    int total = 0;
+                    for (PhotoRow row : (Iterable<PhotoRow>) rows::iterator) {
+                        serializers.defaultSerializeValue(toPhotoResponse(row), generator);
+                        if (++total % 500 == 0) {
+                            generator.flush();
+                        }
+                    }
+                    generator.writeEndArray();
+                    // Known only once the cursor is drained; JSON clients don't depend on key order
+                    generator.writeNumberField("total", total);
+                    generator.writeEndObject();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSer) {
+            serialize(generator, serializers);
+        }
+    }
 }
@@ -5,14 +5,17 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import world.isnap.filmpostcard.dto.CursorPageResponse;
 import world.isnap.filmpostcard.dto.PostcardResponse;
 import world.isnap.filmpostcard.entity.Postcard;
 import world.isnap.filmpostcard.entity.User;
 import world.isnap.filmpostcard.repository.PostcardRepository;
+import world.isnap.filmpostcard.util.CursorUtil;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -24,6 +27,7 @@ public class PostcardService {
     private final PostcardRepository postcardRepository;
     private final FileStorageService fileStorageService;
     private final UserService userService;
+    private final UserCounterService userCounterService;
     
     @Transactional
     public PostcardResponse createPostcardFromImage(String imageFilename, String textContent, String templateType, String qrUrl, String username) throws IOException {
@@ -53,6 +57,11 @@ public class PostcardService {
                 .build();
         
         Postcard saved = postcardRepository.save(postcard);
+        userCounterService.adjustDesigns(user, 1);
+        
+        // The postcard shares the stored image; take a reference so deleting either side keeps the other intact.
+        // Taken last, and released again if this transaction rolls back.
+        fileStorageService.retainFile(imageFilename);
         log.info("Postcard created from existing image with ID: {}", saved.getId());
         
         return toResponse(saved);
@@ -70,7 +79,8 @@ public class PostcardService {
         }
         
         // Store file in user-specific directory
-        String filename = fileStorageService.storeFile(image, username, FileStorageService.FileType.POSTCARD);
+        FileStorageService.StoredFile storedFile = fileStorageService.storeFileWithSize(image, username, FileStorageService.FileType.POSTCARD);
+        String filename = storedFile.getRelativePath();
         
         // Create postcard entity
         Postcard postcard = Postcard.builder()
@@ -78,12 +88,13 @@ public class PostcardService {
                 .imagePath(filename)
                 .textContent(textContent)
                 .originalFilename(image.getOriginalFilename())
-                .fileSize(image.getSize())
+                .fileSize(storedFile.getFileSize())
                 .templateType(templateType != null ? templateType : "postcard")
                 .qrUrl(qrUrl)
                 .build();
         
         Postcard saved = postcardRepository.save(postcard);
+        userCounterService.adjustDesigns(user, 1);
         log.info("Postcard created with ID: {}", saved.getId());
         
         return toResponse(saved);
@@ -102,6 +113,22 @@ public class PostcardService {
                 .collect(Collectors.toList());
     }
     
+    public CursorPageResponse<PostcardResponse> getPostcardsByCursor(String cursor, Integer limit) {
+        int size = CursorUtil.clampLimit(limit);
+        CursorUtil.Cursor after = CursorUtil.decode(cursor);
+        List<Postcard> postcards = new ArrayList<>(after == null
+                ? postcardRepository.findFirstPage(size + 1)
+                : postcardRepository.findPageAfter(after.timestamp(), after.id(), size + 1));
+        String nextCursor = CursorUtil.nextCursor(postcards, size, Postcard::getCreatedAt, Postcard::getId);
+        
+        return CursorPageResponse.<PostcardResponse>builder()
+                .items(postcards.stream().map(this::toResponse).collect(Collectors.toList()))
+                .nextCursor(nextCursor)
+                .hasNext(nextCursor != null)
+                .limit(size)
+                .build();
+    }
+    
     public List<PostcardResponse> getUserPostcards(String username) {
         User user = userService.getUserEntity(username);
         return postcardRepository.findByUserOrderByCreatedAtDesc(user)
@@ -142,6 +169,7 @@ public class PostcardService {
         
         // Delete record
         postcardRepository.delete(postcard);
+        userCounterService.adjustDesigns(postcard.getUser(), -1);
         log.info("Postcard deleted with ID: {}", id);
     }
     
@@ -156,37 +184,10 @@ public class PostcardService {
             throw new RuntimeException("File size exceeds maximum limit of 30MB");
         }
         
-        // Check file content (Magic Bytes) - most reliable validation
-        try {
-            byte[] bytes = new byte[3];
-            file.getInputStream().read(bytes);
-            
-            // JPG files start with: FF D8 FF
-            if (!(bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xD8 && bytes[2] == (byte) 0xFF)) {
-                throw new RuntimeException("File content is not a valid JPG/JPEG image");
-            }
-        } catch (java.io.IOException e) {
-            throw new RuntimeException("Failed to read file content");
-        }
-        
-        // Check content type - only JPG/JPEG allowed
-        String contentType = file.getContentType();
-        if (contentType == null || 
-            (!contentType.equals("image/jpeg") && !contentType.equals("image/jpg"))) {
-            throw new RuntimeException("Only JPG/JPEG images are allowed");
-        }
-        
-        // Check file extension
-        String originalFilename = file.getOriginalFilename();
-        if (originalFilename != null) {
-            String lowerFilename = originalFilename.toLowerCase();
-            if (!lowerFilename.endsWith(".jpg") && !lowerFilename.endsWith(".jpeg")) {
-                throw new RuntimeException("File must have .jpg or .jpeg extension");
-            }
-        }
+        // Content type, extension and JPEG structure are validated by FileStorageService while the file is stored
     }
     
-    private PostcardResponse toResponse(Postcard postcard) {
+    PostcardResponse toResponse(Postcard postcard) {
         return PostcardResponse.builder()
                 .id(postcard.getId())
                 .imageUrl("/api/images/" + postcard.getImagePath())
@@ -6,7 +6,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import world.isnap.filmpostcard.entity.User;
 import world.isnap.filmpostcard.entity.UserTier;
-import world.isnap.filmpostcard.repository.PhotoRepository;
 import world.isnap.filmpostcard.repository.UserRepository;
 
 @Service
@@ -15,12 +14,17 @@ import world.isnap.filmpostcard.repository.UserRepository;
 public class StorageQuotaService {
     
     private final UserRepository userRepository;
-    private final PhotoRepository photoRepository;
+    private final UserCacheService userCacheService;
     
     /**
-     * Check if user can upload a file of given size
+     * Reserve quota for an upload before the file is written.
+     * The byte check and the increment are a single conditional UPDATE, so parallel uploads from
+     * the same user can't overshoot the limit, and no row lock is held while the file is stored.
+     * The caller must {@link StorageReservation#commit(long) commit} once the upload is kept;
+     * closing an uncommitted reservation gives the bytes back.
      */
-    public void validateUpload(User user, long fileSize) {
+    @Transactional
+    public StorageReservation reserveUpload(User user, long fileSize) {
         UserTier tier = UserTier.fromString(user.getUserTier());
         
         // Check single file size limit
@@ -33,40 +37,30 @@ public class StorageQuotaService {
             );
         }
         
-        // Check total storage quota
-        long storageUsed = user.getStorageUsed() != null ? user.getStorageUsed() : 0L;
-        if (storageUsed + fileSize > tier.getStorageLimit()) {
-            long available = tier.getStorageLimit() - storageUsed;
+        // Check photo count limit
+        long photoCount = user.getPhotoCount() != null ? user.getPhotoCount() : 0L;
+        if (photoCount >= tier.getPhotoLimit()) {
             throw new RuntimeException(
-                String.format("Insufficient storage. You have %s available out of %s total (%s tier). File requires %s.",
-                    formatBytes(available),
-                    tier.getStorageLimitFormatted(),
+                String.format("Photo limit reached. Your %s tier allows %d photos. Please delete some photos or upgrade your account.",
                     tier.getDisplayName(),
-                    formatBytes(fileSize))
+                    tier.getPhotoLimit())
             );
         }
         
-        // Check photo count limit
-        Long photoCount = photoRepository.countByUser(user);
-        if (photoCount >= tier.getPhotoLimit()) {
+        // Check and take total storage quota in one statement
+        if (userRepository.reserveStorage(user.getId(), fileSize, tier.getStorageLimit()) == 0) {
+            long available = Math.max(0, tier.getStorageLimit() - userRepository.findStorageUsed(user.getId()));
             throw new RuntimeException(
-                String.format("Photo limit reached. Your %s tier allows %d photos. Please delete some photos or upgrade your account.",
+                String.format("Insufficient storage. You have %s available out of %s total (%s tier). File requires %s.",
+                    formatBytes(available),
+                    tier.getStorageLimitFormatted(),
                     tier.getDisplayName(),
-                    tier.getPhotoLimit())
+                    formatBytes(fileSize))
             );
         }
-    }
-    
-    /**
-     * Update user's storage usage after successful upload
-     */
-    @Transactional
-    public void incrementStorage(User user, long fileSize) {
-        long currentUsage = user.getStorageUsed() != null ? user.getStorageUsed() : 0L;
-        user.setStorageUsed(currentUsage + fileSize);
-        userRepository.save(user);
-        log.info("Storage updated for user {}: {} bytes (+{} bytes)", 
-                user.getUsername(), user.getStorageUsed(), fileSize);
+        userCacheService.invalidate(user);
+        log.debug("Reserved {} bytes for user {}", fileSize, user.getUsername());
+        return new StorageReservation(user, fileSize);
     }
     
     /**
@@ -74,11 +68,9 @@ public class StorageQuotaService {
      */
     @Transactional
     public void decrementStorage(User user, long fileSize) {
-        long currentUsage = user.getStorageUsed() != null ? user.getStorageUsed() : 0L;
-        user.setStorageUsed(Math.max(0, currentUsage - fileSize));
-        userRepository.save(user);
-        log.info("Storage updated for user {}: {} bytes (-{} bytes)", 
-                user.getUsername(), user.getStorageUsed(), fileSize);
+        userRepository.adjustStorage(user.getId(), -fileSize);
+        userCacheService.invalidate(user);
+        log.info("Storage updated for user {}: -{} bytes", user.getUsername(), fileSize);
     }
     
     /**
@@ -87,7 +79,7 @@ public class StorageQuotaService {
     public StorageQuotaInfo getQuotaInfo(User user) {
         UserTier tier = UserTier.fromString(user.getUserTier());
         long storageUsed = user.getStorageUsed() != null ? user.getStorageUsed() : 0L;
-        Long photoCount = photoRepository.countByUser(user);
+        long photoCount = user.getPhotoCount() != null ? user.getPhotoCount() : 0L;
         
         return StorageQuotaInfo.builder()
                 .tier(tier.name())
@@ -97,7 +89,7 @@ public class StorageQuotaService {
                 .storageUsedFormatted(formatBytes(storageUsed))
                 .storageLimitFormatted(tier.getStorageLimitFormatted())
                 .storagePercentage((int) ((storageUsed * 100) / tier.getStorageLimit()))
-                .photoCount(photoCount.intValue())
+                .photoCount((int) photoCount)
                 .photoLimit(tier.getPhotoLimit())
                 .singleFileLimit(tier.getSingleFileLimit())
                 .singleFileLimitFormatted(tier.getSingleFileLimitFormatted())
@@ -116,6 +108,53 @@ public class StorageQuotaService {
         }
     }
     
+    /**
+     * Bytes taken from a user's quota for an in-flight upload
+     */
+    public class StorageReservation implements AutoCloseable {
+        private final User user;
+        private final long reservedBytes;
+        private boolean settled;
+        
+        private StorageReservation(User user, long reservedBytes) {
+            this.user = user;
+            this.reservedBytes = reservedBytes;
+        }
+        
+        /**
+         * Keep the upload; corrects the charge if the stored size differs from the reserved one
+         */
+        public void commit(long storedBytes) {
+            if (settled) {
+                return;
+            }
+            settled = true;
+            if (storedBytes != reservedBytes) {
+                userRepository.adjustStorage(user.getId(), storedBytes - reservedBytes);
+                userCacheService.invalidate(user);
+            }
+            log.info("Storage updated for user {}: +{} bytes", user.getUsername(), storedBytes);
+        }
+        
+        /**
+         * Give the reserved bytes back (upload failed or turned out to be a duplicate)
+         */
+        public void release() {
+            if (settled) {
+                return;
+            }
+            settled = true;
+            userRepository.adjustStorage(user.getId(), -reservedBytes);
+            userCacheService.invalidate(user);
+            log.debug("Released {} reserved bytes for user {}", reservedBytes, user.getUsername());
+        }
+        
+        @Override
+        public void close() {
+            release();
+        }
+    }
+    
     @lombok.Data
     @lombok.Builder
     public static class StorageQuotaInfo {
@@ -0,0 +1,439 @@
+package world.isnap.filmpostcard.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-bounded cache of hot small images (thumbnails, avatars) held off-heap.
+ * Bytes live in direct-buffer pages carved into fixed-size slots per size class, so cached
+ * images never add to the Java heap or GC work. Each size class evicts with CLOCK
+ * (second chance), and a TinyLFU frequency sketch decides admission: a new image only
+ * replaces the victim when it has been requested more often recently.
+ *
+ * Pages stay with the size class that first needed them. If the mix of image sizes shifts after
+ * the cache has filled, a class that got few pages can only evict among its own entries and its
+ * hit rate drops (slab calcification). The per-class image.hot_cache.slab_pages / slab_entries
+ * gauges show how pages are spread; a restart redistributes them.
+ */
+@Service
+@Slf4j
+public class ThumbnailCacheService {
+
+    private static final int PAGE_SIZE = 1024 * 1024;
+    private static final int[] SLOT_SIZES = {4 * 1024, 8 * 1024, 16 * 1024, 32 * 1024, 64 * 1024, 128 * 1024};
+
+    @Value("${image.hot-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${image.hot-cache.max-size:64MB}")
+    private DataSize maxSize;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, CachedImage> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger pagesAllocated = new AtomicInteger();
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private SlabClass[] slabClasses;
+    private int maxPages;
+    private FrequencySketch sketch;
+
+    private Counter hits;
+    private Counter misses;
+    private Counter evictions;
+    private Counter rejections;
+
+    public ThumbnailCacheService(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        maxPages = (int) Math.max(1, maxSize.toBytes() / PAGE_SIZE);
+        slabClasses = new SlabClass[SLOT_SIZES.length];
+        for (int i = 0; i < SLOT_SIZES.length; i++) {
+            SlabClass slabClass = new SlabClass(SLOT_SIZES[i]);
+            slabClasses[i] = slabClass;
+            String slotSize = String.valueOf(SLOT_SIZES[i]);
+            Gauge.builder("image.hot_cache.slab_pages", slabClass, c -> c.pages)
+                    .tag("slot_size", slotSize).register(meterRegistry);
+            Gauge.builder("image.hot_cache.slab_entries", slabClass, c -> c.entries.get())
+                    .tag("slot_size", slotSize).register(meterRegistry);
+        }
+        // Size the sketch for the most entries the cache could hold (all smallest slots)
+        sketch = new FrequencySketch((int) Math.min(1 << 24, (long) maxPages * (PAGE_SIZE / SLOT_SIZES[0])));
+
+        hits = Counter.builder("image.hot_cache.requests").tag("result", "hit").register(meterRegistry);
+        misses = Counter.builder("image.hot_cache.requests").tag("result", "miss").register(meterRegistry);
+        evictions = Counter.builder("image.hot_cache.evictions").register(meterRegistry);
+        rejections = Counter.builder("image.hot_cache.admission_rejections").register(meterRegistry);
+        Gauge.builder("image.hot_cache.entries", entries, Map::size).register(meterRegistry);
+        Gauge.builder("image.hot_cache.bytes", cachedBytes, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("image.hot_cache.off_heap_bytes", pagesAllocated, pages -> (double) pages.get() * PAGE_SIZE)
+                .register(meterRegistry);
+        Gauge.builder("image.hot_cache.hit_ratio", this, cache -> cache.hitRatio()).register(meterRegistry);
+
+        log.info("Hot image cache (enabled: {}): {} off-heap, max entry {} bytes",
+                enabled, maxSize, maxEntrySize());
+    }
+
+    /**
+     * Only small derived images are worth caching: thumbnails and compressed avatars
+     */
+    public boolean isCacheable(String relativePath) {
+        return enabled && (relativePath.endsWith("_" + ImageResizeService.THUMB_SUFFIX + ".jpg")
+                || relativePath.endsWith("_" + ImageResizeService.AVATAR_SUFFIX + ".jpg"));
+    }
+
+    public int maxEntrySize() {
+        return SLOT_SIZES[SLOT_SIZES.length - 1];
+    }
+
+    /**
+     * Look up a cached image. The returned handle pins its slot and must be closed after the bytes are written.
+     */
+    public CachedImage get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        sketch.increment(key);
+        CachedImage image = entries.get(key);
+        if (image != null && image.retain()) {
+            image.referenced = true;
+            hits.increment();
+            return image;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Offer image bytes to the cache; ignored if too large or not admitted
+     */
+    public void put(String key, ByteBuffer data, long timestamp) {
+        int size = data.remaining();
+        Reservation reservation = admit(key, size);
+        if (reservation == null) {
+            return;
+        }
+        ByteBuffer slot = reservation.slot();
+        slot.clear();
+        slot.put(data.duplicate());
+        publish(key, reservation, size, timestamp);
+    }
+
+    /**
+     * Offer an image file; it is read straight into the off-heap slot, and only if admitted
+     */
+    public void put(String key, Path file) throws IOException {
+        long fileSize = Files.size(file);
+        if (fileSize > maxEntrySize()) {
+            return;
+        }
+        Reservation reservation = admit(key, (int) fileSize);
+        if (reservation == null) {
+            return;
+        }
+        SlabClass slabClass = reservation.slabClass();
+        ByteBuffer slot = reservation.slot();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            slot.clear().limit((int) fileSize);
+            while (slot.hasRemaining() && channel.read(slot) >= 0) {
+                // fill the slot
+            }
+            if (slot.hasRemaining()) {
+                slabClass.free(slot); // File shrank underneath us
+                return;
+            }
+            publish(key, reservation, (int) fileSize, Files.getLastModifiedTime(file).toMillis());
+        } catch (IOException e) {
+            slabClass.free(slot);
+            throw e;
+        }
+    }
+
+    /**
+     * Drop an image whose file has been removed or replaced
+     */
+    public void invalidate(String key) {
+        if (key == null) {
+            return;
+        }
+        CachedImage image = entries.remove(key);
+        if (image != null) {
+            image.evict();
+            log.debug("Invalidated cached image: {}", key);
+        }
+    }
+
+    public double hitRatio() {
+        double total = hits.count() + misses.count();
+        return total == 0 ? 0 : hits.count() / total;
+    }
+
+    /**
+     * Reserve a slot for a new entry: a free slot, a new page, or - if TinyLFU admits the
+     * candidate over the CLOCK victim - the victim's slot
+     * @return the reserved slot, owned by the caller until published or freed; null if not admitted
+     */
+    private Reservation admit(String key, int size) {
+        if (!enabled || size <= 0 || size > maxEntrySize() || entries.containsKey(key)) {
+            return null;
+        }
+        SlabClass slabClass = slabClassFor(size);
+        ByteBuffer slot;
+        synchronized (slabClass) {
+            slot = slabClass.freeSlots.poll();
+            if (slot == null && pagesAllocated.getAndIncrement() < maxPages) {
+                slabClass.addPage(ByteBuffer.allocateDirect(PAGE_SIZE));
+                slot = slabClass.freeSlots.poll();
+            } else if (slot == null) {
+                pagesAllocated.decrementAndGet();
+                CachedImage victim = slabClass.nextVictim();
+                if (victim == null) {
+                    return null;
+                }
+                if (sketch.frequency(key) <= sketch.frequency(victim.key)) {
+                    // The resident image is at least as popular: keep it as the next victim
+                    slabClass.clock.addFirst(victim);
+                    rejections.increment();
+                    return null;
+                }
+                if (entries.remove(victim.key, victim)) {
+                    victim.evict();
+                    evictions.increment();
+                }
+                // Null if a reader still holds the victim; its slot is freed when the reader finishes
+                slot = slabClass.freeSlots.poll();
+            }
+        }
+        if (slot == null) {
+            return null;
+        }
+        return new Reservation(slabClass, slot);
+    }
+
+    private void publish(String key, Reservation reservation, int size, long timestamp) {
+        SlabClass slabClass = reservation.slabClass();
+        CachedImage image = new CachedImage(key, slabClass, reservation.slot(), size, timestamp);
+        if (entries.putIfAbsent(key, image) != null) {
+            slabClass.free(reservation.slot());
+            return;
+        }
+        cachedBytes.addAndGet(size);
+        slabClass.entries.incrementAndGet();
+        synchronized (slabClass) {
+            slabClass.clock.addLast(image);
+        }
+    }
+
+    private SlabClass slabClassFor(int size) {
+        for (SlabClass slabClass : slabClasses) {
+            if (size <= slabClass.slotSize) {
+                return slabClass;
+            }
+        }
+        throw new IllegalArgumentException("Image too large for cache: " + size);
+    }
+
+    /**
+     * A pinned cached image; close() releases the pin
+     */
+    public final class CachedImage implements AutoCloseable {
+        private final String key;
+        private final SlabClass slabClass;
+        private final ByteBuffer slot;
+        private final int size;
+        private final long timestamp;
+        // The cache holds one reference; readers add one each while streaming
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final AtomicBoolean evicted = new AtomicBoolean();
+        private volatile boolean referenced;
+
+        private CachedImage(String key, SlabClass slabClass, ByteBuffer slot, int size, long timestamp) {
+            this.key = key;
+            this.slabClass = slabClass;
+            this.slot = slot;
+            this.size = size;
+            this.timestamp = timestamp;
+        }
+
+        public ByteBuffer data() {
+            return slot.slice(0, size).asReadOnlyBuffer();
+        }
+
+        public long timestamp() {
+            return timestamp;
+        }
+
+        private boolean retain() {
+            while (true) {
+                int current = refs.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (refs.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void evict() {
+            if (evicted.compareAndSet(false, true)) {
+                cachedBytes.addAndGet(-size);
+                slabClass.entries.decrementAndGet();
+                release();
+            }
+        }
+
+        private void release() {
+            if (refs.decrementAndGet() == 0) {
+                slabClass.free(slot);
+            }
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    }
+
+    /**
+     * Slots of one size carved from 1MB direct pages, with a CLOCK queue of the entries using them
+     */
+    private static final class SlabClass {
+        private final int slotSize;
+        private final ArrayDeque<ByteBuffer> freeSlots;
+        private final ArrayDeque<CachedImage> clock;
+        // Occupancy for the per-class gauges
+        private volatile int pages;
+        private final AtomicInteger entries = new AtomicInteger();
+
+        private SlabClass(int slotSize) {
+            this.slotSize = slotSize;
+            this.freeSlots = new ArrayDeque<>();
+            this.clock = new ArrayDeque<>();
+        }
+
+        private void addPage(ByteBuffer page) {
+            pages++;
+            for (int offset = 0; offset + slotSize <= page.capacity(); offset += slotSize) {
+                freeSlots.add(page.slice(offset, slotSize));
+            }
+        }
+
+        private CachedImage nextVictim() {
+            // Second chance: recently read entries get cleared and moved to the back once
+            for (int scanned = 0, limit = clock.size() * 2; scanned < limit; scanned++) {
+                CachedImage candidate = clock.pollFirst();
+                if (candidate == null) {
+                    return null;
+                }
+                if (candidate.evicted.get()) {
+                    continue; // Invalidated; its slot is already (or soon) free
+                }
+                if (candidate.referenced) {
+                    candidate.referenced = false;
+                    clock.addLast(candidate);
+                    continue;
+                }
+                return candidate;
+            }
+            return clock.pollFirst();
+        }
+
+        private synchronized void free(ByteBuffer slot) {
+            freeSlots.add(slot);
+        }
+    }
+
+    private record Reservation(SlabClass slabClass, ByteBuffer slot) {
+    }
+
+    /**
+     * Count-min sketch with 4-bit saturating counters that are halved periodically,
+     * so frequencies reflect recent popularity (the TinyLFU admission filter)
+     */
+    private static final class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int[] SEEDS = {0x97cb3127, 0xc3a5c85c, 0x9ae16a3b, 0x7ed55d16};
+
+        private final byte[][] table;
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        private FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(64, expectedEntries) - 1) << 1;
+            table = new byte[DEPTH][width];
+            mask = width - 1;
+            sampleSize = width * 10;
+        }
+
+        void increment(String key) {
+            int hash = spread(key.hashCode());
+            for (int i = 0; i < DEPTH; i++) {
+                int index = indexOf(hash, i);
+                // Racy increments only make the estimate slightly less exact
+                if (table[i][index] < 15) {
+                    table[i][index]++;
+                }
+            }
+            if (additions.incrementAndGet() >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(String key) {
+            int hash = spread(key.hashCode());
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < DEPTH; i++) {
+                min = Math.min(min, table[i][indexOf(hash, i)]);
+            }
+            return min;
+        }
+
+        private synchronized void reset() {
+            if (additions.get() < sampleSize) {
+                return;
+            }
+            for (byte[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = (byte) (row[i] >>> 1);
+                }
+            }
+            additions.set(0);
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = hash * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xed5ad4bb;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+}
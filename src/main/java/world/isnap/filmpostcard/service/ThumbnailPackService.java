@@ -0,0 +1,425 @@
+package world.isnap.filmpostcard.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Packed store for thumbnails, replacing millions of tiny {base}_thumb.jpg files.
+ * Thumbnails are appended as records to segment files (uploads/packs/segment-NNNNNN.pack);
+ * an in-memory index maps the thumbnail's relative path to segment/offset/length and is
+ * rebuilt from the record headers at startup. Reads are slices of memory-mapped segments,
+ * deletes append tombstones, and compaction rewrites the live records of mostly-dead
+ * segments into the active one.
+ *
+ * Record layout: magic(4) flag(1) keyLength(2) dataLength(4) timestamp(8) crc32(4) key data
+ */
+@Service
+@Slf4j
+public class ThumbnailPackService {
+
+    private static final int RECORD_MAGIC = 0x54504B31; // "TPK1"
+    private static final byte FLAG_LIVE = 1;
+    private static final byte FLAG_TOMBSTONE = 2;
+    private static final int HEADER_SIZE = 23;
+    private static final String PACK_DIR = "packs";
+
+    @Value("${image.thumb-pack.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.upload-dir:uploads}")
+    private String uploadDir;
+
+    @Value("${image.thumb-pack.segment-size:256MB}")
+    private DataSize segmentSize;
+
+    @Value("${image.thumb-pack.compaction-dead-ratio:0.5}")
+    private double compactionDeadRatio;
+
+    // Thumbnail relative path -> location of its live record
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+
+    private Path packDir;
+    // Replaced under writeLock; volatile for the unlocked pre-check in compact()
+    private volatile Segment active;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            log.info("Thumbnail pack store disabled");
+            return;
+        }
+        packDir = Paths.get(uploadDir).toAbsolutePath().normalize().resolve(PACK_DIR);
+        Files.createDirectories(packDir);
+
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> files = Files.list(packDir)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith("segment-") && name.endsWith(".pack"))
+                    .forEach(name -> ids.add(Integer.parseInt(name.substring(8, name.length() - 5))));
+        }
+        ids.sort(null);
+
+        for (int i = 0; i < ids.size(); i++) {
+            boolean last = i == ids.size() - 1;
+            Segment segment = Segment.open(segmentFile(ids.get(i)), ids.get(i), last ? capacity() : -1);
+            segments.put(segment.id, segment);
+            scan(segment);
+            if (last) {
+                active = segment;
+            }
+        }
+        if (active == null) {
+            active = newSegment(1);
+        }
+        log.info("Thumbnail pack store: {} ({} segments, {} thumbnails)", packDir, segments.size(), index.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        synchronized (writeLock) {
+            for (Segment segment : segments.values()) {
+                segment.closeQuietly();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean contains(String relativePath) {
+        return enabled && index.containsKey(relativePath);
+    }
+
+    /**
+     * Move a generated thumbnail file into the pack; the loose file is deleted once the record is durable
+     * @return false if the store is disabled or the file is too large for a segment (the file is left in place)
+     */
+    public boolean pack(String relativePath, Path file) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        byte[] data = Files.readAllBytes(file);
+        long timestamp = Files.getLastModifiedTime(file).toMillis();
+        if (recordSize(relativePath, data.length) > capacity()) {
+            return false;
+        }
+        synchronized (writeLock) {
+            Entry entry = append(relativePath, FLAG_LIVE, data, timestamp);
+            Entry previous = index.put(relativePath, entry);
+            if (previous != null) {
+                markDead(previous);
+            }
+        }
+        Files.deleteIfExists(file);
+        return true;
+    }
+
+    /**
+     * Look up a packed thumbnail
+     * @return read-only slice of the mapped segment, or null if the thumbnail isn't packed
+     */
+    public PackedImage get(String relativePath) {
+        if (!enabled) {
+            return null;
+        }
+        // Retry once: compaction may have moved the record between the index read and the segment read
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Entry entry = index.get(relativePath);
+            if (entry == null) {
+                return null;
+            }
+            Segment segment = segments.get(entry.segmentId);
+            if (segment != null) {
+                ByteBuffer data = segment.slice(entry.dataOffset, entry.dataLength);
+                return new PackedImage(data, entry.timestamp);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove a thumbnail; its space is reclaimed by compaction
+     */
+    public void remove(String relativePath) {
+        if (!enabled || !index.containsKey(relativePath)) {
+            return;
+        }
+        synchronized (writeLock) {
+            Entry previous = index.remove(relativePath);
+            if (previous == null) {
+                return;
+            }
+            markDead(previous);
+            try {
+                Entry tombstone = append(relativePath, FLAG_TOMBSTONE, new byte[0], System.currentTimeMillis());
+                markDead(tombstone);
+            } catch (IOException e) {
+                // Without the tombstone the thumbnail reappears after a restart; harmless but logged
+                log.warn("Failed to write tombstone for packed thumbnail: {}", relativePath, e);
+            }
+        }
+    }
+
+    /**
+     * Rewrite sealed segments that are mostly dead records into the active segment and delete them
+     */
+    @Scheduled(fixedDelayString = "${image.thumb-pack.compaction-interval-ms:1800000}",
+            initialDelayString = "${image.thumb-pack.compaction-interval-ms:1800000}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active) {
+                continue;
+            }
+            long total = segment.writePosition;
+            long dead = segment.deadBytes.get();
+            if (total > 0 && (double) dead / total < compactionDeadRatio) {
+                continue;
+            }
+            try {
+                compactSegment(segment);
+            } catch (IOException e) {
+                log.error("Failed to compact thumbnail pack segment {}", segment.id, e);
+            }
+        }
+    }
+
+    private void compactSegment(Segment segment) throws IOException {
+        int moved = 0;
+        synchronized (writeLock) {
+            if (segment == active) {
+                return;
+            }
+            boolean olderSegmentExists = segments.lowerKey(segment.id) != null;
+            long position = 0;
+            while (position < segment.writePosition) {
+                Record record = segment.readRecord(position);
+                if (record == null) {
+                    break;
+                }
+                Entry current = index.get(record.key);
+                if (record.flag == FLAG_LIVE && current != null
+                        && current.segmentId == segment.id && current.dataOffset == record.dataOffset) {
+                    byte[] data = new byte[record.dataLength];
+                    segment.slice(record.dataOffset, record.dataLength).get(data);
+                    index.put(record.key, append(record.key, FLAG_LIVE, data, record.timestamp));
+                    moved++;
+                } else if (record.flag == FLAG_TOMBSTONE && current == null && olderSegmentExists) {
+                    // Still needed to shadow a live record in an older segment when the index is rebuilt
+                    markDead(append(record.key, FLAG_TOMBSTONE, new byte[0], record.timestamp));
+                }
+                position = record.dataOffset + record.dataLength;
+            }
+            segments.remove(segment.id);
+        }
+        // Readers still holding slices keep the mapping alive; the file itself can go
+        segment.closeQuietly();
+        Files.deleteIfExists(segment.path);
+        log.info("Compacted thumbnail pack segment {}: moved {} live thumbnails, reclaimed {} bytes",
+                segment.id, moved, segment.writePosition);
+    }
+
+    private Entry append(String key, byte flag, byte[] data, long timestamp) throws IOException {
+        int size = recordSize(key, data.length);
+        if (active.writePosition + size > capacity()) {
+            active.seal();
+            active = newSegment(active.id + 1);
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(keyBytes);
+        crc.update(data);
+
+        ByteBuffer record = ByteBuffer.allocate(size);
+        record.putInt(RECORD_MAGIC)
+                .put(flag)
+                .putShort((short) keyBytes.length)
+                .putInt(data.length)
+                .putLong(timestamp)
+                .putInt((int) crc.getValue())
+                .put(keyBytes)
+                .put(data)
+                .flip();
+
+        long position = active.writePosition;
+        active.write(record, position);
+        active.writePosition = position + size;
+        return new Entry(active.id, position + HEADER_SIZE + keyBytes.length, data.length, timestamp, size);
+    }
+
+    private void scan(Segment segment) {
+        long position = 0;
+        while (true) {
+            Record record = segment.readRecord(position);
+            if (record == null) {
+                break; // End of data, or a torn record from a crash mid-append
+            }
+            Entry entry = new Entry(segment.id, record.dataOffset, record.dataLength, record.timestamp, record.size);
+            Entry previous = record.flag == FLAG_LIVE ? index.put(record.key, entry) : index.remove(record.key);
+            if (previous != null) {
+                markDead(previous);
+            }
+            if (record.flag == FLAG_TOMBSTONE) {
+                segment.deadBytes.addAndGet(record.size);
+            }
+            position = record.dataOffset + record.dataLength;
+        }
+        segment.writePosition = position;
+    }
+
+    private void markDead(Entry entry) {
+        Segment segment = segments.get(entry.segmentId);
+        if (segment != null) {
+            segment.deadBytes.addAndGet(entry.recordSize);
+        }
+    }
+
+    private Segment newSegment(int id) throws IOException {
+        Segment segment = Segment.open(segmentFile(id), id, capacity());
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Path segmentFile(int id) {
+        return packDir.resolve(String.format("segment-%06d.pack", id));
+    }
+
+    private int capacity() {
+        return (int) Math.min(segmentSize.toBytes(), Integer.MAX_VALUE);
+    }
+
+    private static int recordSize(String key, int dataLength) {
+        return HEADER_SIZE + key.getBytes(StandardCharsets.UTF_8).length + dataLength;
+    }
+
+    /**
+     * Packed thumbnail bytes and the time they were generated (used for Last-Modified / ETag)
+     */
+    public record PackedImage(ByteBuffer data, long timestamp) {
+    }
+
+    private record Entry(int segmentId, long dataOffset, int dataLength, long timestamp, int recordSize) {
+    }
+
+    private record Record(String key, byte flag, long dataOffset, int dataLength, long timestamp, int size) {
+    }
+
+    /**
+     * One segment file. The active segment is mapped read-write at full capacity (the file is
+     * extended sparsely) so reads never need a remap; sealed segments are truncated to their data.
+     */
+    private static class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private volatile MappedByteBuffer mapped;
+        private volatile long writePosition;
+        private final AtomicLong deadBytes = new AtomicLong();
+
+        private Segment(int id, Path path, FileChannel channel, MappedByteBuffer mapped) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.mapped = mapped;
+        }
+
+        /**
+         * @param capacity bytes to map read-write for the active segment, or -1 to map a sealed segment read-only
+         */
+        static Segment open(Path path, int id, int capacity) throws IOException {
+            if (capacity < 0) {
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+                return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(id, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+
+        void write(ByteBuffer record, long position) throws IOException {
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            channel.force(false);
+        }
+
+        ByteBuffer slice(long offset, int length) {
+            return mapped.slice((int) offset, length).asReadOnlyBuffer();
+        }
+
+        Record readRecord(long position) {
+            ByteBuffer buffer = mapped;
+            if (position + HEADER_SIZE > buffer.capacity()) {
+                return null;
+            }
+            int pos = (int) position;
+            if (buffer.getInt(pos) != RECORD_MAGIC) {
+                return null;
+            }
+            byte flag = buffer.get(pos + 4);
+            int keyLength = Short.toUnsignedInt(buffer.getShort(pos + 5));
+            int dataLength = buffer.getInt(pos + 7);
+            long timestamp = buffer.getLong(pos + 11);
+            int crc = buffer.getInt(pos + 19);
+            long dataOffset = position + HEADER_SIZE + keyLength;
+            if (dataLength < 0 || dataOffset + dataLength > buffer.capacity()) {
+                return null;
+            }
+            byte[] keyBytes = new byte[keyLength];
+            buffer.get(pos + HEADER_SIZE, keyBytes);
+            CRC32 check = new CRC32();
+            check.update(keyBytes);
+            check.update(buffer.slice((int) dataOffset, dataLength));
+            if ((int) check.getValue() != crc) {
+                return null;
+            }
+            return new Record(new String(keyBytes, StandardCharsets.UTF_8), flag, dataOffset, dataLength,
+                    timestamp, HEADER_SIZE + keyLength + dataLength);
+        }
+
+        /**
+         * Trim the preallocated tail and remap read-only
+         */
+        void seal() throws IOException {
+            channel.truncate(writePosition);
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, writePosition);
+        }
+
+        void closeQuietly() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close thumbnail pack segment: {}", path, e);
+            }
+        }
+    }
+}
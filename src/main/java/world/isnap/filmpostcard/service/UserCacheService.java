@@ -0,0 +1,144 @@
+package world.isnap.filmpostcard.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import world.isnap.filmpostcard.entity.User;
+import world.isnap.filmpostcard.repository.UserRepository;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Read-through cache of User rows by username and by id.
+ * A request touches the same user several times (controller, service, quota check); only the
+ * first lookup hits the database. Callers get a detached copy per lookup, so mutating and
+ * saving it never affects the cached snapshot. Writers call {@link #invalidate(User)}; the entry
+ * is dropped immediately and again after the surrounding transaction commits, so a concurrent
+ * reader can't re-cache the pre-commit row.
+ */
+@Service
+@Slf4j
+public class UserCacheService {
+
+    @Value("${user.cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${user.cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    private final UserRepository userRepository;
+    private final MeterRegistry meterRegistry;
+
+    private Cache<String, User> byUsername;
+    private Cache<Long, User> byId;
+
+    public UserCacheService(UserRepository userRepository, MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        byUsername = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        byId = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .build();
+        // cache.gets{cache=users.by_username,result=hit|miss}, evictions, size
+        CaffeineCacheMetrics.monitor(meterRegistry, byUsername, "users.by_username");
+        CaffeineCacheMetrics.monitor(meterRegistry, byId, "users.by_id");
+    }
+
+    public Optional<User> findByUsername(String username) {
+        User cached = byUsername.getIfPresent(username);
+        if (cached == null) {
+            cached = userRepository.findByUsername(username).map(this::store).orElse(null);
+        }
+        return Optional.ofNullable(cached).map(UserCacheService::copy);
+    }
+
+    public Optional<User> findById(Long id) {
+        User cached = byId.getIfPresent(id);
+        if (cached == null) {
+            cached = userRepository.findById(id).map(this::store).orElse(null);
+        }
+        return Optional.ofNullable(cached).map(UserCacheService::copy);
+    }
+
+    /**
+     * Drop a user whose row is being changed; call before or inside the writing transaction
+     */
+    public void invalidate(User user) {
+        evict(user.getUsername(), user.getId());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(user.getUsername(), user.getId());
+                }
+            });
+        }
+    }
+
+    /**
+     * Drop a user by key only, for bulk updates that never load the entity
+     */
+    public void invalidate(String username, Long id) {
+        invalidate(User.builder().username(username).id(id).build());
+    }
+
+    private void evict(String username, Long id) {
+        if (username != null) {
+            byUsername.invalidate(username);
+        }
+        if (id != null) {
+            byId.invalidate(id);
+        }
+    }
+
+    private User store(User user) {
+        User snapshot = copy(user);
+        byUsername.put(snapshot.getUsername(), snapshot);
+        byId.put(snapshot.getId(), snapshot);
+        return snapshot;
+    }
+
+    private static User copy(User user) {
+        return User.builder()
+                .id(user.getId())
+                .username(user.getUsername())
+                .email(user.getEmail())
+                .passwordHash(user.getPasswordHash())
+                .displayName(user.getDisplayName())
+                .bio(user.getBio())
+                .avatarUrl(user.getAvatarUrl())
+                .website(user.getWebsite())
+                .xiaohongshu(user.getXiaohongshu())
+                .location(user.getLocation())
+                .favoriteCamera(user.getFavoriteCamera())
+                .favoriteLens(user.getFavoriteLens())
+                .favoritePhotographer(user.getFavoritePhotographer())
+                .isActive(user.getIsActive())
+                .userTier(user.getUserTier())
+                .storageUsed(user.getStorageUsed())
+                .photoCount(user.getPhotoCount())
+                .designCount(user.getDesignCount())
+                .albumCount(user.getAlbumCount())
+                .createdAt(user.getCreatedAt())
+                .updatedAt(user.getUpdatedAt())
+                .build();
+    }
+}
@@ -0,0 +1,91 @@
+package world.isnap.filmpostcard.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import world.isnap.filmpostcard.entity.User;
+import world.isnap.filmpostcard.repository.UserRepository;
+
+import java.util.List;
+
+/**
+ * Maintains the photo/design/album counters on users.
+ * Each adjust runs inside the caller's transaction, next to the insert or delete it counts, so
+ * profile and quota reads are a single user row instead of COUNT(*) queries. A periodic
+ * reconciliation recomputes the counters from the owning tables and fixes any drift
+ * (rows changed outside the service layer, counters added to an existing database).
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class UserCounterService {
+    
+    private static final int RECONCILE_PAGE = 500;
+    
+    private final UserRepository userRepository;
+    private final UserCacheService userCacheService;
+    private final TransactionTemplate transactionTemplate;
+    
+    public void adjustPhotos(User user, long delta) {
+        userRepository.adjustPhotoCount(user.getId(), delta);
+        userCacheService.invalidate(user);
+    }
+    
+    public void adjustDesigns(User user, long delta) {
+        if (user == null) {
+            return; // anonymous postcard
+        }
+        userRepository.adjustDesignCount(user.getId(), delta);
+        userCacheService.invalidate(user);
+    }
+    
+    public void adjustAlbums(User user, long delta) {
+        userRepository.adjustAlbumCount(user.getId(), delta);
+        userCacheService.invalidate(user);
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        reconcile();
+    }
+    
+    /**
+     * One user per transaction: lock the user row, then count and update. A single set-based
+     * UPDATE would count from its own snapshot and, after waiting on a concurrent upload's row
+     * lock, overwrite that upload's increment with the stale count.
+     */
+    @Scheduled(cron = "${user.counters.reconcile-cron:0 30 4 * * *}")
+    public void reconcile() {
+        try {
+            int fixed = 0;
+            Long after = 0L;
+            List<Long> ids;
+            do {
+                ids = userRepository.findIdsAfter(after, Limit.of(RECONCILE_PAGE));
+                for (Long id : ids) {
+                    List<Object[]> rows = transactionTemplate.execute(status -> {
+                        userRepository.lockById(id);
+                        return userRepository.reconcileCounters(id);
+                    });
+                    for (Object[] row : rows) {
+                        userCacheService.invalidate((String) row[1], ((Number) row[0]).longValue());
+                        fixed++;
+                    }
+                }
+                if (!ids.isEmpty()) {
+                    after = ids.get(ids.size() - 1);
+                }
+            } while (ids.size() == RECONCILE_PAGE);
+            if (fixed > 0) {
+                log.info("Reconciled counters for {} users", fixed);
+            }
+        } catch (Exception e) {
+            log.error("Counter reconciliation failed", e);
+        }
+    }
+}
@@ -12,8 +12,6 @@ import world.isnap.filmpostcard.dto.UserProfileResponse;
 import world.isnap.filmpostcard.dto.UserRegistrationRequest;
 import world.isnap.filmpostcard.entity.User;
 import world.isnap.filmpostcard.entity.UserTier;
-import world.isnap.filmpostcard.repository.PhotoRepository;
-import world.isnap.filmpostcard.repository.PostcardRepository;
 import world.isnap.filmpostcard.repository.UserRepository;
 import world.isnap.filmpostcard.util.JwtUtil;
 
@@ -28,10 +26,10 @@ import java.util.Base64;
 public class UserService {
     
     private final UserRepository userRepository;
-    private final PostcardRepository postcardRepository;
-    private final PhotoRepository photoRepository;
     private final FileStorageService fileStorageService;
     private final ImageResizeService imageResizeService;
+    private final ThumbnailCacheService thumbnailCacheService;
+    private final UserCacheService userCacheService;
     private final JwtUtil jwtUtil;
     
     @Transactional
@@ -61,14 +59,14 @@ public class UserService {
     }
     
     public UserProfileResponse getUserProfile(String username) {
-        User user = userRepository.findByUsername(username)
+        User user = userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         return toProfileResponse(user);
     }
     
     public UserLoginResponse loginUser(UserLoginRequest request) {
         // Find user by username
-        User user = userRepository.findByUsername(request.getUsername())
+        User user = userCacheService.findByUsername(request.getUsername())
                 .orElse(null);
         
         if (user == null) {
@@ -138,6 +136,7 @@ public class UserService {
             user.setFavoritePhotographer(request.getFavoritePhotographer());
         }
         
+        userCacheService.invalidate(user);
         User updated = userRepository.save(user);
         log.info("User profile updated: {}", username);
         
@@ -149,24 +148,17 @@ public class UserService {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
         
-        // Delete old avatar if exists
-        if (user.getAvatarUrl() != null) {
-            try {
-                String oldFilename = user.getAvatarUrl().replace("/api/images/", "");
-                fileStorageService.deleteFile(oldFilename);
-                log.info("Deleted old avatar: {}", oldFilename);
-            } catch (Exception e) {
-                log.warn("Failed to delete old avatar", e);
-            }
-        }
-        
         // Store new avatar in user-specific directory
         String filename = fileStorageService.storeFile(avatar, username, FileStorageService.FileType.AVATAR);
         
         // Compress avatar to 200x200px
         try {
             java.nio.file.Path originalPath = fileStorageService.getFilePath(filename);
-            java.nio.file.Path compressedPath = imageResizeService.compressAvatar(originalPath);
+            // A shared blob must outlive this avatar's compressed version: the avatar keeps
+            // its reference to the original, and the compressed version is reused across users
+            java.nio.file.Path compressedPath = fileStorageService.isBlobPath(filename)
+                    ? imageResizeService.createAvatarVersion(originalPath)
+                    : imageResizeService.compressAvatar(originalPath);
             
             // Update filename to compressed version
             java.nio.file.Path baseUploadDir = java.nio.file.Paths.get(fileStorageService.getUploadDir());
@@ -177,10 +169,27 @@ public class UserService {
         } catch (IOException e) {
             log.error("Failed to compress avatar, using original", e);
             // Continue with original file if compression fails
+        } catch (RuntimeException e) {
+            // Rejected (e.g. decode budget exhausted) - drop the new file and keep the current avatar
+            fileStorageService.deleteFile(filename);
+            throw e;
+        }
+        
+        // Delete old avatar once the new one is in place
+        if (user.getAvatarUrl() != null) {
+            try {
+                String oldFilename = user.getAvatarUrl().replace("/api/images/", "");
+                fileStorageService.deleteFile(oldFilename);
+                thumbnailCacheService.invalidate(oldFilename);
+                log.info("Deleted old avatar: {}", oldFilename);
+            } catch (Exception e) {
+                log.warn("Failed to delete old avatar", e);
+            }
         }
         
         user.setAvatarUrl("/api/images/" + filename);
         
+        userCacheService.invalidate(user);
         User updated = userRepository.save(user);
         log.info("Avatar updated for user: {} -> {}", username, user.getAvatarUrl());
         
@@ -188,14 +197,11 @@ public class UserService {
     }
     
     public User getUserEntity(String username) {
-        return userRepository.findByUsername(username)
+        return userCacheService.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("User not found: " + username));
     }
     
     private UserProfileResponse toProfileResponse(User user) {
-        Long designCount = postcardRepository.countByUser(user);
-        Long photoCount = photoRepository.countByUser(user);
-        
         // Get user tier and quota limits
         UserTier tier = UserTier.fromString(user.getUserTier());
         
@@ -212,8 +218,8 @@ public class UserService {
                 .favoriteCamera(user.getFavoriteCamera())
                 .favoriteLens(user.getFavoriteLens())
                 .favoritePhotographer(user.getFavoritePhotographer())
-                .designCount(designCount)
-                .photoCount(photoCount)
+                .designCount(user.getDesignCount() != null ? user.getDesignCount() : 0L)
+                .photoCount(user.getPhotoCount() != null ? user.getPhotoCount() : 0L)
                 .createdAt(user.getCreatedAt())
                 // Storage quota fields
                 .userTier(tier.name())
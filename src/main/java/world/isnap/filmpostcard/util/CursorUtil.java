@@ -0,0 +1,66 @@
+package world.isnap.filmpostcard.util;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Opaque keyset cursors for newest-first listings.
+ * A cursor is the (timestamp, id) of the last row on a page; the next page continues strictly
+ * after it, so listings never need OFFSET or a COUNT query and stay stable while rows are added.
+ */
+public final class CursorUtil {
+
+    public static final int DEFAULT_LIMIT = 20;
+    public static final int MAX_LIMIT = 100;
+
+    public record Cursor(LocalDateTime timestamp, Long id) {
+    }
+
+    private CursorUtil() {
+    }
+
+    public static String encode(LocalDateTime timestamp, Long id) {
+        String raw = timestamp + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the decoded cursor, or null for the first page
+     */
+    public static Cursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.lastIndexOf('|');
+            return new Cursor(LocalDateTime.parse(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1)));
+        } catch (RuntimeException e) {
+            throw new RuntimeException("Invalid cursor");
+        }
+    }
+
+    public static int clampLimit(Integer limit) {
+        if (limit == null || limit < 1) {
+            return DEFAULT_LIMIT;
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * Cursor for the page after {@code rows}, which were fetched with limit + 1 to detect a next page;
+     * trims the extra row. Returns null when this is the last page.
+     */
+    public static <T> String nextCursor(List<T> rows, int limit,
+                                        Function<T, LocalDateTime> timestamp, Function<T, Long> id) {
+        if (rows.size() <= limit) {
+            return null;
+        }
+        rows.subList(limit, rows.size()).clear();
+        T last = rows.get(limit - 1);
+        return encode(timestamp.apply(last), id.apply(last));
+    }
+}
@@ -0,0 +1,248 @@
+package world.isnap.filmpostcard.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Writes image files straight to the servlet response with HTTP caching and Range support.
+ * Full and partial bodies go out through the container's sendfile when it is available
+ * (Tomcat NIO), otherwise through FileChannel.transferTo; conditional requests are
+ * answered with 304 from ETag / Last-Modified without touching the file contents.
+ */
+public final class ImageResponseUtil {
+
+    // Tomcat request attributes for handing a file region to the connector's sendfile
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String CACHE_REVALIDATE = "public, no-cache";
+
+    private static final long[] UNSATISFIABLE = new long[0];
+
+    private ImageResponseUtil() {
+    }
+
+    /**
+     * Serve a JPEG file
+     * @param etag Strong entity tag (quoted); null derives one from modification time and size
+     * @param immutable Content never changes under this URL (content-addressed), so clients may cache it for good
+     */
+    public static void serveFile(HttpServletRequest request, HttpServletResponse response,
+                                 Path file, String etag, boolean immutable) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        if (etag == null) {
+            etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(attributes.size()) + "\"";
+        }
+        serve(request, response, file.getFileName().toString(), attributes.size(), lastModified, etag, immutable,
+                (start, end) -> {
+                    if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                        // The connector streams the region from the page cache after this handler returns
+                        request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+                        request.setAttribute(SENDFILE_START, start);
+                        request.setAttribute(SENDFILE_END, end);
+                        return;
+                    }
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        OutputStream out = response.getOutputStream();
+                        WritableByteChannel target = Channels.newChannel(out);
+                        long position = start;
+                        while (position < end) {
+                            long sent = channel.transferTo(position, end - position, target);
+                            if (sent <= 0) {
+                                break;
+                            }
+                            position += sent;
+                        }
+                        out.flush();
+                    }
+                });
+    }
+
+    /**
+     * Serve JPEG bytes held in memory (packed or cached images)
+     * @param data Image bytes from position to limit; not modified
+     */
+    public static void serveBuffer(HttpServletRequest request, HttpServletResponse response, String filename,
+                                   ByteBuffer data, long lastModified, String etag, boolean immutable) throws IOException {
+        if (etag == null) {
+            etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(data.remaining()) + "\"";
+        }
+        serve(request, response, filename, data.remaining(), lastModified, etag, immutable, (start, end) -> {
+            ByteBuffer region = data.slice(data.position() + (int) start, (int) (end - start));
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            while (region.hasRemaining()) {
+                target.write(region);
+            }
+            out.flush();
+        });
+    }
+
+    /**
+     * Headers, conditional requests and Range handling shared by every image source;
+     * the body writer is only called for a 200/206 GET with the byte region to send.
+     */
+    static void serve(HttpServletRequest request, HttpServletResponse response, String filename,
+                      long length, long lastModified, String etag, boolean immutable,
+                      BodyWriter body) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, immutable ? CACHE_IMMUTABLE : CACHE_REVALIDATE);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long start = 0;
+        long end = length; // exclusive
+        long[] range = requestedRange(request, etag, lastModified, length);
+        if (range == UNSATISFIABLE) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+        if (range != null) {
+            start = range[0];
+            end = range[1];
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+        } else {
+            response.setStatus(HttpServletResponse.SC_OK);
+        }
+
+        response.setContentType(MediaType.IMAGE_JPEG_VALUE);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
+        response.setContentLengthLong(end - start);
+        if (!"HEAD".equals(request.getMethod())) {
+            body.write(start, end);
+        }
+    }
+
+    @FunctionalInterface
+    interface BodyWriter {
+        void write(long start, long end) throws IOException;
+    }
+
+    /**
+     * If-None-Match takes precedence; If-Modified-Since only applies when no entity tags were sent
+     */
+    private static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return matchesAny(ifNoneMatch, etag);
+        }
+        long ifModifiedSince = parseDateHeader(request, HttpHeaders.IF_MODIFIED_SINCE);
+        // HTTP dates have second precision
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * Parse a single "bytes=" range. Multiple ranges, malformed headers and a stale If-Range
+     * all fall back to the full body, which the spec allows.
+     * @return [start, endExclusive], null for the full body, or UNSATISFIABLE
+     */
+    private static long[] requestedRange(HttpServletRequest request, String etag, long lastModified, long length) {
+        String header = request.getHeader(HttpHeaders.RANGE);
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null) {
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                if (!ifRange.equals(etag)) {
+                    return null;
+                }
+            } else if (parseDateHeader(request, HttpHeaders.IF_RANGE) / 1000 != lastModified / 1000) {
+                return null;
+            }
+        }
+
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                // Suffix range: last N bytes
+                long suffix = parsePosition(spec.substring(1));
+                if (suffix == 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length;
+            } else {
+                start = parsePosition(spec.substring(0, dash));
+                String last = spec.substring(dash + 1);
+                if (last.isEmpty()) {
+                    end = length;
+                } else {
+                    long lastPosition = parsePosition(last);
+                    if (lastPosition < start) {
+                        return null; // last < first: syntactically invalid, ignore
+                    }
+                    end = lastPosition >= length ? length : lastPosition + 1;
+                }
+            }
+            if (start >= length) {
+                return UNSATISFIABLE;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Digits only: Long.parseLong would also take a sign
+    private static long parsePosition(String value) {
+        if (value.isEmpty() || !value.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            throw new NumberFormatException("Invalid byte position: " + value);
+        }
+        return Long.parseLong(value);
+    }
+
+    private static boolean matchesAny(String header, String etag) {
+        String opaque = stripWeak(etag);
+        for (String candidate : header.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || stripWeak(candidate).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // If-None-Match uses weak comparison
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
+    private static long parseDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package world.isnap.filmpostcard.util;
+
+import java.awt.Dimension;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Minimal JPEG marker walker that reads image dimensions from the SOF header
+ * without decoding any pixel data.
+ */
+public final class JpegHeaderUtil {
+
+    private JpegHeaderUtil() {
+    }
+
+    /**
+     * Read width/height from the first SOFn segment
+     * @param in Stream positioned at the start of the file (SOI marker)
+     * @return dimensions, or null if the stream is not a JPEG or has no frame header before the scan data
+     */
+    public static Dimension readDimensions(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        try {
+            if (data.readUnsignedByte() != 0xFF || data.readUnsignedByte() != 0xD8) {
+                return null;
+            }
+            while (true) {
+                if (data.readUnsignedByte() != 0xFF) {
+                    return null; // Corrupt segment structure
+                }
+                int marker = data.readUnsignedByte();
+                while (marker == 0xFF) {
+                    marker = data.readUnsignedByte(); // Fill bytes
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    continue; // Standalone markers (TEM, RSTn) carry no length
+                }
+                if (marker == 0xD9 || marker == 0xDA) {
+                    return null; // EOI or start of scan before any frame header
+                }
+                int length = data.readUnsignedShort();
+                if (length < 2) {
+                    return null;
+                }
+                if (isStartOfFrame(marker)) {
+                    data.readUnsignedByte(); // Sample precision
+                    int height = data.readUnsignedShort();
+                    int width = data.readUnsignedShort();
+                    return new Dimension(width, height);
+                }
+                data.skipNBytes(length - 2);
+            }
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        // SOF0-SOF15, excluding DHT (C4), JPG (C8) and DAC (CC)
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+}
@@ -0,0 +1,75 @@
+package world.isnap.filmpostcard.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * InputStream that copies every byte it reads to an OutputStream and counts them,
+ * so a stream can be inspected, hashed and persisted in one pass.
+ */
+public class TeeInputStream extends FilterInputStream {
+
+    private final OutputStream copy;
+    private long bytesRead;
+
+    public TeeInputStream(InputStream in, OutputStream copy) {
+        super(in);
+        this.copy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            copy.write(b);
+            bytesRead++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            copy.write(b, off, n);
+            bytesRead += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must still reach the copy, so read them through
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long remaining = n;
+        while (remaining > 0) {
+            int read = read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Read and copy everything left in the stream
+     */
+    public void drain() throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        while (read(buffer, 0, buffer.length) >= 0) {
+            // copied by read()
+        }
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+}
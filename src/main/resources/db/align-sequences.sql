@@ -0,0 +1,9 @@
+-- Runs on every start, after Hibernate's schema update (spring.jpa.defer-datasource-initialization).
+-- Moves each id sequence past the ids already handed out by the old IDENTITY columns;
+-- with allocationSize = 50 the pooled optimizer hands out (value - 49 .. value], so the
+-- sequence must stay at least 50 above MAX(id). Idempotent: never moves a sequence backwards.
+SELECT setval('photos_seq', GREATEST((SELECT last_value FROM photos_seq), (SELECT COALESCE(MAX(id), 0) FROM photos) + 50));
+SELECT setval('postcards_seq', GREATEST((SELECT last_value FROM postcards_seq), (SELECT COALESCE(MAX(id), 0) FROM postcards) + 50));
+SELECT setval('albums_seq', GREATEST((SELECT last_value FROM albums_seq), (SELECT COALESCE(MAX(id), 0) FROM albums) + 50));
+SELECT setval('orders_seq', GREATEST((SELECT last_value FROM orders_seq), (SELECT COALESCE(MAX(id), 0) FROM orders) + 50));
+SELECT setval('downloads_seq', GREATEST((SELECT last_value FROM downloads_seq), (SELECT COALESCE(MAX(id), 0) FROM downloads) + 50));
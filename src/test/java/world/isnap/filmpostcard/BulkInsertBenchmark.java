@@ -0,0 +1,105 @@
+package world.isnap.filmpostcard;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+import world.isnap.filmpostcard.entity.Download;
+import world.isnap.filmpostcard.repository.DownloadRepository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bulk import throughput: row-at-a-time INSERT ... RETURNING id (what IDENTITY ids force on
+ * Hibernate) against saveAll with pooled sequence ids and JDBC batching.
+ * Needs the configured Postgres; every run is rolled back.
+ *
+ *   mvn test -Dtest=BulkInsertBenchmark -Dbenchmark=true [-Dbenchmark.rows=20000]
+ */
+@SpringBootTest
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+@TestPropertySource(properties = "spring.jpa.show-sql=false")
+class BulkInsertBenchmark {
+
+	private static final int ROWS = Integer.getInteger("benchmark.rows", 10000);
+	private static final int ROUNDS = 3;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private DownloadRepository downloadRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private TransactionTemplate transactionTemplate;
+
+	@Test
+	void bulkInsertThroughput() {
+		// Warm up connections, statement caches and the JIT
+		identityStyle(1000);
+		batched(1000);
+
+		for (int round = 1; round <= ROUNDS; round++) {
+			long identityNanos = identityStyle(ROWS);
+			long batchedNanos = batched(ROWS);
+			System.out.printf("round %d: %d rows  identity (row-at-a-time): %,.0f rows/s  sequence + batching: %,.0f rows/s  (%.1fx)%n",
+					round, ROWS, rowsPerSecond(identityNanos), rowsPerSecond(batchedNanos),
+					(double) identityNanos / batchedNanos);
+		}
+	}
+
+	// Before: each insert is its own round trip and returns the generated id. downloads.id has no
+	// default any more, so this goes to a scratch copy of the table with an IDENTITY id (same
+	// columns and indexes), dropped with the rolled-back transaction
+	private long identityStyle(int rows) {
+		return timedAndRolledBack(() -> {
+			jdbcTemplate.execute("CREATE TEMP TABLE bench_downloads (LIKE downloads INCLUDING INDEXES)");
+			jdbcTemplate.execute("ALTER TABLE bench_downloads ALTER COLUMN id ADD GENERATED BY DEFAULT AS IDENTITY");
+			Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+			for (int i = 0; i < rows; i++) {
+				jdbcTemplate.queryForObject(
+						"INSERT INTO bench_downloads (image_id, template_type, download_timestamp, created_at) " +
+								"VALUES (?, ?, ?, ?) RETURNING id",
+						Long.class, "bench-" + i, "postcard", now, now);
+			}
+		});
+	}
+
+	// After: ids come from the pooled sequence, inserts go out in JDBC batches
+	private long batched(int rows) {
+		return timedAndRolledBack(() -> {
+			List<Download> downloads = new ArrayList<>(rows);
+			for (int i = 0; i < rows; i++) {
+				downloads.add(Download.builder().imageId("bench-" + i).templateType("postcard").build());
+			}
+			downloadRepository.saveAll(downloads);
+			entityManager.flush();
+			entityManager.clear();
+		});
+	}
+
+	private long timedAndRolledBack(Runnable work) {
+		long[] elapsed = new long[1];
+		transactionTemplate.executeWithoutResult(status -> {
+			long start = System.nanoTime();
+			work.run();
+			elapsed[0] = System.nanoTime() - start;
+			status.setRollbackOnly();
+		});
+		return elapsed[0];
+	}
+
+	private static double rowsPerSecond(long nanos) {
+		return ROWS / (nanos / 1_000_000_000.0);
+	}
+}
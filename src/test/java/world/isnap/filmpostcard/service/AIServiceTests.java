@@ -0,0 +1,100 @@
+package world.isnap.filmpostcard.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AIServiceTests {
+
+	private StubChatModel chatModel;
+	private SimpleMeterRegistry meterRegistry;
+	private AIService aiService;
+
+	@BeforeEach
+	void setUp() {
+		chatModel = new StubChatModel();
+		meterRegistry = new SimpleMeterRegistry();
+		aiService = new AIService(chatModel, meterRegistry);
+		ReflectionTestUtils.setField(aiService, "maxSize", 100L);
+		ReflectionTestUtils.setField(aiService, "ttlSeconds", 60L);
+		aiService.init();
+	}
+
+	@Test
+	void repeatedTextIsServedFromCache() {
+		String first = aiService.polishText("新年快乐  万事如意", "greeting");
+		String second = aiService.polishText(" 新年快乐 万事如意\n", "greeting");
+
+		assertThat(second).isEqualTo(first);
+		assertThat(chatModel.getCalls()).isEqualTo(1);
+		assertThat(meterRegistry.get("cache.gets").tag("cache", "ai.polish").tag("result", "hit")
+				.functionCounter().count()).isEqualTo(1);
+		assertThat(meterRegistry.get("ai.polish.model").tag("result", "success").timer().count()).isEqualTo(1);
+	}
+
+	@Test
+	void modelGetsTheOriginalTextNotTheCacheKey() {
+		String text = "亲爱的ＡＢ\n\n  愿你一切安好\n—— 小明";
+
+		// Only the cache key is normalized; line breaks and full-width characters reach the model
+		assertThat(aiService.polishText(text, "greeting")).isEqualTo("polished: " + text);
+	}
+
+	@Test
+	void templateTypeIsPartOfTheKey() {
+		aiService.polishText("Happy birthday", "postcard");
+		aiService.polishText("Happy birthday", "bookmark");
+
+		assertThat(chatModel.getCalls()).isEqualTo(2);
+	}
+
+	@Test
+	void concurrentIdenticalRequestsShareOneCall() throws Exception {
+		CountDownLatch gate = chatModel.hold();
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				results.add(pool.submit(() -> aiService.polishText("Wish you were here", "postcard")));
+			}
+			// Let every request reach the cache before the single model call returns
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (meterRegistry.get("ai.polish.coalesced").counter().count() < 7) {
+				assertThat(System.nanoTime() - deadline).as("waiting for coalesced requests").isNegative();
+				Thread.sleep(5);
+			}
+			gate.countDown();
+
+			for (Future<String> result : results) {
+				assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("polished: Wish you were here");
+			}
+			assertThat(chatModel.getCalls()).isEqualTo(1);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void failuresAreNotCached() {
+		chatModel.failWith(new IllegalStateException("quota exceeded"));
+		assertThatThrownBy(() -> aiService.polishText("See you soon", "postcard"))
+				.isInstanceOf(RuntimeException.class)
+				.hasMessage("AI service unavailable");
+
+		chatModel.failWith(null);
+		assertThat(aiService.polishText("See you soon", "postcard")).isEqualTo("polished: See you soon");
+		assertThat(chatModel.getCalls()).isEqualTo(2);
+	}
+}
@@ -0,0 +1,62 @@
+package world.isnap.filmpostcard.service;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Local ChatModel for tests: answers from a function of the prompt text, counts calls and can
+ * hold every call at a gate until the test releases it.
+ */
+public class StubChatModel implements ChatModel {
+
+	private final Function<String, String> responder;
+	private final AtomicInteger calls = new AtomicInteger();
+	private volatile CountDownLatch gate = new CountDownLatch(0);
+	private volatile RuntimeException failure;
+
+	public StubChatModel() {
+		this(prompt -> "polished: " + prompt.substring(prompt.lastIndexOf('：') + 1));
+	}
+
+	public StubChatModel(Function<String, String> responder) {
+		this.responder = responder;
+	}
+
+	@Override
+	public ChatResponse call(Prompt prompt) {
+		calls.incrementAndGet();
+		try {
+			gate.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return new ChatResponse(List.of(new Generation(new AssistantMessage(responder.apply(prompt.getContents())))));
+	}
+
+	public int getCalls() {
+		return calls.get();
+	}
+
+	/** Block calls until the returned latch is counted down */
+	public CountDownLatch hold() {
+		gate = new CountDownLatch(1);
+		return gate;
+	}
+
+	/** Fail subsequent calls with the given exception (null to answer normally again) */
+	public void failWith(RuntimeException failure) {
+		this.failure = failure;
+	}
+}
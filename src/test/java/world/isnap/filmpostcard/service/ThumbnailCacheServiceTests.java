@@ -0,0 +1,178 @@
+package world.isnap.filmpostcard.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ThumbnailCacheServiceTests {
+
+	// 4KB slots: 256 per 1MB page
+	private static final int SMALL = 3000;
+	private static final int SMALL_SLOTS_PER_PAGE = 256;
+	// 128KB slots: 8 per page
+	private static final int LARGE = 100 * 1024;
+	private static final int LARGE_SLOTS_PER_PAGE = 8;
+
+	private SimpleMeterRegistry meterRegistry;
+	private ThumbnailCacheService cache;
+
+	@Test
+	void fillingPastMaxPagesStaysWithinTheSizeBound() {
+		open(DataSize.ofMegabytes(2));
+
+		for (int i = 0; i < 3 * SMALL_SLOTS_PER_PAGE; i++) {
+			cache.put(key(i), image(i, SMALL), i);
+		}
+
+		// Two pages' worth of slots are used; cold newcomers don't displace equally cold residents
+		assertThat(gauge("image.hot_cache.off_heap_bytes")).isEqualTo(2.0 * 1024 * 1024);
+		assertThat(gauge("image.hot_cache.entries")).isEqualTo(2 * SMALL_SLOTS_PER_PAGE);
+		assertThat(slabGauge("image.hot_cache.slab_pages", 4096)).isEqualTo(2);
+		assertThat(meterRegistry.get("image.hot_cache.admission_rejections").counter().count())
+				.isEqualTo(SMALL_SLOTS_PER_PAGE);
+
+		// Every page is taken by the 4KB class: a larger image finds no page and no victim of its size
+		cache.put("large", image(99, LARGE), 0);
+		assertThat(cache.get("large")).isNull();
+		assertThat(slabGauge("image.hot_cache.slab_pages", 131072)).isZero();
+		assertThat(gauge("image.hot_cache.off_heap_bytes")).isEqualTo(2.0 * 1024 * 1024);
+	}
+
+	@Test
+	void frequentlyRequestedImageIsAdmittedOverAColdVictim() {
+		open(DataSize.ofMegabytes(1));
+		for (int i = 0; i < SMALL_SLOTS_PER_PAGE; i++) {
+			cache.put(key(i), image(i, SMALL), i);
+		}
+		// Keep entry 0 warm: CLOCK gives it a second chance, so entry 1 is the victim
+		try (ThumbnailCacheService.CachedImage warm = cache.get(key(0))) {
+			assertThat(warm).isNotNull();
+		}
+
+		cache.put("cold", image(200, SMALL), 0);
+		assertThat(cache.get("cold")).isNull();
+
+		// Missed a few times, the newcomer is more popular than any resident
+		for (int i = 0; i < 3; i++) {
+			assertThat(cache.get("hot")).isNull();
+		}
+		cache.put("hot", image(201, SMALL), 0);
+
+		assertThat(meterRegistry.get("image.hot_cache.evictions").counter().count()).isEqualTo(1);
+		assertThat(gauge("image.hot_cache.entries")).isEqualTo(SMALL_SLOTS_PER_PAGE);
+		assertCached("hot", image(201, SMALL).array());
+		assertThat(cache.get(key(1))).isNull();
+		assertCached(key(0), image(0, SMALL).array());
+	}
+
+	@Test
+	void slotHeldByAReaderIsNotReusedUntilReleased() {
+		open(DataSize.ofMegabytes(1));
+		for (int i = 0; i < LARGE_SLOTS_PER_PAGE; i++) {
+			cache.put(key(i), image(i, LARGE), i);
+		}
+
+		ThumbnailCacheService.CachedImage served = cache.get(key(0));
+		assertThat(served).isNotNull();
+		cache.invalidate(key(0));
+		assertThat(cache.get(key(0))).isNull();
+
+		// The invalidated slot is still being served, so a new image must take another one
+		hot("replacement");
+		cache.put("replacement", image(50, LARGE), 0);
+		assertThat(bytes(served.data())).isEqualTo(image(0, LARGE).array());
+		assertCached("replacement", image(50, LARGE).array());
+
+		// Released: the slot goes back to the free list and the next image may use it
+		served.close();
+		hot("after-release");
+		cache.put("after-release", image(51, LARGE), 0);
+		assertCached("after-release", image(51, LARGE).array());
+		assertCached("replacement", image(50, LARGE).array());
+
+		// No key ever reads another key's bytes
+		for (int i = 1; i < LARGE_SLOTS_PER_PAGE; i++) {
+			try (ThumbnailCacheService.CachedImage cached = cache.get(key(i))) {
+				if (cached != null) {
+					assertThat(bytes(cached.data())).as(key(i)).isEqualTo(image(i, LARGE).array());
+				}
+			}
+		}
+		assertThat(gauge("image.hot_cache.off_heap_bytes")).isEqualTo(1024.0 * 1024);
+	}
+
+	@Test
+	void evictedVictimStillBeingServedKeepsItsBytes() {
+		open(DataSize.ofMegabytes(1));
+		for (int i = 0; i < LARGE_SLOTS_PER_PAGE; i++) {
+			cache.put(key(i), image(i, LARGE), i);
+		}
+		// Every resident has been read once; the pinned one is only released after the test checks it
+		ThumbnailCacheService.CachedImage served = cache.get(key(0));
+		for (int i = 1; i < LARGE_SLOTS_PER_PAGE; i++) {
+			cache.get(key(i)).close();
+		}
+
+		// CLOCK clears the reference bits and evicts entry 0 first, but a reader still holds its slot:
+		// the newcomer is not cached rather than written over bytes in flight
+		hot("newcomer");
+		cache.put("newcomer", image(60, LARGE), 0);
+		assertThat(cache.get("newcomer")).isNull();
+		assertThat(bytes(served.data())).isEqualTo(image(0, LARGE).array());
+
+		served.close();
+		cache.put("newcomer", image(60, LARGE), 0);
+		assertCached("newcomer", image(60, LARGE).array());
+	}
+
+	private void open(DataSize maxSize) {
+		meterRegistry = new SimpleMeterRegistry();
+		cache = new ThumbnailCacheService(meterRegistry);
+		ReflectionTestUtils.setField(cache, "enabled", true);
+		ReflectionTestUtils.setField(cache, "maxSize", maxSize);
+		cache.init();
+	}
+
+	private void hot(String key) {
+		for (int i = 0; i < 5; i++) {
+			assertThat(cache.get(key)).isNull();
+		}
+	}
+
+	private void assertCached(String key, byte[] expected) {
+		try (ThumbnailCacheService.CachedImage image = cache.get(key)) {
+			assertThat(image).as(key).isNotNull();
+			assertThat(bytes(image.data())).as(key).isEqualTo(expected);
+		}
+	}
+
+	private double gauge(String name) {
+		return meterRegistry.get(name).gauge().value();
+	}
+
+	private double slabGauge(String name, int slotSize) {
+		return meterRegistry.get(name).tag("slot_size", String.valueOf(slotSize)).gauge().value();
+	}
+
+	private static String key(int i) {
+		return "alice/photos/p" + i + "_thumb.jpg";
+	}
+
+	private static ByteBuffer image(int seed, int length) {
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte) seed);
+		return ByteBuffer.wrap(data);
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return data;
+	}
+}
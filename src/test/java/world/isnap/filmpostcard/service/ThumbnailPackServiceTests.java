@@ -0,0 +1,187 @@
+package world.isnap.filmpostcard.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ThumbnailPackServiceTests {
+
+	// Record header: magic(4) flag(1) keyLength(2) dataLength(4) timestamp(8) crc32(4)
+	private static final int HEADER_SIZE = 23;
+
+	@TempDir
+	Path uploadDir;
+
+	private final List<ThumbnailPackService> opened = new ArrayList<>();
+
+	@AfterEach
+	void closeStores() {
+		opened.forEach(ThumbnailPackService::close);
+	}
+
+	@Test
+	void packedThumbnailReadsBackAndSurvivesRestart() throws IOException {
+		ThumbnailPackService store = open(DataSize.ofMegabytes(1));
+		byte[] data = thumbnail(1, 700);
+		Path file = looseFile("alice/photos/a_thumb.jpg", data);
+		Files.setLastModifiedTime(file, FileTime.fromMillis(1_700_000_000_000L));
+
+		assertThat(store.pack("alice/photos/a_thumb.jpg", file)).isTrue();
+
+		assertThat(file).doesNotExist();
+		assertThat(store.contains("alice/photos/a_thumb.jpg")).isTrue();
+		ThumbnailPackService.PackedImage packed = store.get("alice/photos/a_thumb.jpg");
+		assertThat(bytes(packed.data())).isEqualTo(data);
+		assertThat(packed.timestamp()).isEqualTo(1_700_000_000_000L);
+		assertThat(store.get("alice/photos/missing_thumb.jpg")).isNull();
+
+		store.close();
+		ThumbnailPackService reopened = open(DataSize.ofMegabytes(1));
+		assertThat(bytes(reopened.get("alice/photos/a_thumb.jpg").data())).isEqualTo(data);
+	}
+
+	@Test
+	void compactionReclaimsDeadSegmentsAndKeepsLiveThumbnails() throws IOException {
+		// ~1KB records in 4KB segments: three per segment, so ten thumbnails span four segments
+		ThumbnailPackService store = open(DataSize.ofKilobytes(4));
+		for (int i = 0; i < 10; i++) {
+			store.pack(key(i), looseFile(key(i), thumbnail(i, 1000)));
+		}
+		assertThat(segmentFile(1)).exists();
+		assertThat(segmentFile(4)).exists();
+
+		// Segment 1 holds thumbnails 0-2; drop two of them, and one from segment 2
+		store.remove(key(0));
+		store.remove(key(1));
+		store.remove(key(4));
+		store.compact();
+
+		assertThat(segmentFile(1)).doesNotExist();
+		assertThat(segmentFile(2)).exists(); // one dead record out of three stays below the 0.5 ratio
+		assertThat(store.get(key(0))).isNull();
+		assertThat(store.get(key(1))).isNull();
+		assertThat(store.get(key(4))).isNull();
+		for (int i : new int[] {2, 3, 5, 6, 7, 8, 9}) {
+			assertThat(bytes(store.get(key(i)).data())).as(key(i)).isEqualTo(thumbnail(i, 1000));
+		}
+
+		// The rebuilt index agrees: the tombstone for key 4 still shadows its record in segment 2
+		store.close();
+		ThumbnailPackService reopened = open(DataSize.ofKilobytes(4));
+		assertThat(reopened.contains(key(0))).isFalse();
+		assertThat(reopened.contains(key(4))).isFalse();
+		for (int i : new int[] {2, 3, 5, 6, 7, 8, 9}) {
+			assertThat(bytes(reopened.get(key(i)).data())).as(key(i)).isEqualTo(thumbnail(i, 1000));
+		}
+	}
+
+	@Test
+	void truncatedTailRecordIsDroppedOnRestart() throws IOException {
+		ThumbnailPackService store = open(DataSize.ofMegabytes(1));
+		for (int i = 0; i < 3; i++) {
+			store.pack(key(i), looseFile(key(i), thumbnail(i, 500)));
+		}
+		store.close();
+
+		// Crash mid-append: the last record is cut off halfway through its data
+		long tail = recordSize(key(0), 500) + recordSize(key(1), 500);
+		try (FileChannel channel = FileChannel.open(segmentFile(1), StandardOpenOption.WRITE)) {
+			channel.truncate(tail + HEADER_SIZE + key(2).length() + 250);
+		}
+
+		ThumbnailPackService reopened = open(DataSize.ofMegabytes(1));
+		assertThat(bytes(reopened.get(key(0)).data())).isEqualTo(thumbnail(0, 500));
+		assertThat(bytes(reopened.get(key(1)).data())).isEqualTo(thumbnail(1, 500));
+		assertThat(reopened.contains(key(2))).isFalse();
+
+		// New appends overwrite the torn record and survive the next restart
+		reopened.pack(key(3), looseFile(key(3), thumbnail(3, 500)));
+		reopened.close();
+		ThumbnailPackService again = open(DataSize.ofMegabytes(1));
+		assertThat(bytes(again.get(key(3)).data())).isEqualTo(thumbnail(3, 500));
+		assertThat(again.contains(key(1))).isTrue();
+	}
+
+	@Test
+	void corruptTailRecordIsDroppedOnRestart() throws IOException {
+		ThumbnailPackService store = open(DataSize.ofMegabytes(1));
+		for (int i = 0; i < 3; i++) {
+			store.pack(key(i), looseFile(key(i), thumbnail(i, 500)));
+		}
+		store.close();
+
+		// Flip one data byte of the last record so its CRC no longer matches
+		long dataOffset = recordSize(key(0), 500) + recordSize(key(1), 500) + HEADER_SIZE + key(2).length();
+		try (FileChannel channel = FileChannel.open(segmentFile(1), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer one = ByteBuffer.allocate(1);
+			channel.read(one, dataOffset + 10);
+			one.flip();
+			byte flipped = (byte) ~one.get();
+			channel.write(ByteBuffer.wrap(new byte[] {flipped}), dataOffset + 10);
+		}
+
+		ThumbnailPackService reopened = open(DataSize.ofMegabytes(1));
+		assertThat(reopened.contains(key(0))).isTrue();
+		assertThat(reopened.contains(key(1))).isTrue();
+		assertThat(reopened.get(key(2))).isNull();
+	}
+
+	private ThumbnailPackService open(DataSize segmentSize) throws IOException {
+		ThumbnailPackService store = new ThumbnailPackService();
+		ReflectionTestUtils.setField(store, "enabled", true);
+		ReflectionTestUtils.setField(store, "uploadDir", uploadDir.toString());
+		ReflectionTestUtils.setField(store, "segmentSize", segmentSize);
+		ReflectionTestUtils.setField(store, "compactionDeadRatio", 0.5);
+		store.init();
+		opened.add(store);
+		return store;
+	}
+
+	private Path looseFile(String relativePath, byte[] data) throws IOException {
+		Path file = uploadDir.resolve(relativePath);
+		Files.createDirectories(file.getParent());
+		return Files.write(file, data);
+	}
+
+	private Path segmentFile(int id) {
+		return uploadDir.resolve("packs").resolve(String.format("segment-%06d.pack", id));
+	}
+
+	private static String key(int i) {
+		return "alice/photos/p" + i + "_thumb.jpg";
+	}
+
+	private static long recordSize(String key, int dataLength) {
+		return HEADER_SIZE + key.getBytes(StandardCharsets.UTF_8).length + dataLength;
+	}
+
+	private static byte[] thumbnail(int seed, int length) {
+		byte[] data = new byte[length];
+		Arrays.fill(data, (byte) seed);
+		data[0] = (byte) 0xFF;
+		data[1] = (byte) 0xD8;
+		return data;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] data = new byte[buffer.remaining()];
+		buffer.duplicate().get(data);
+		return data;
+	}
+}
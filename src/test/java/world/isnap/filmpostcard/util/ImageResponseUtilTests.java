@@ -0,0 +1,256 @@
+package world.isnap.filmpostcard.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageResponseUtilTests {
+
+	private static final long LENGTH = 1000;
+	private static final String ETAG = "\"abc123\"";
+	// Sub-second part on purpose: HTTP dates only carry whole seconds
+	private static final long LAST_MODIFIED = 1_700_000_000_250L;
+
+	private final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/images/a_thumb.jpg");
+	private final MockHttpServletResponse response = new MockHttpServletResponse();
+	private final List<long[]> written = new ArrayList<>();
+
+	@Test
+	void plainGetSendsTheWholeBodyWithValidators() throws IOException {
+		serve();
+
+		assertThat(response.getStatus()).isEqualTo(200);
+		assertThat(response.getContentLengthLong()).isEqualTo(LENGTH);
+		assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo(ETAG);
+		assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+		assertThat(response.getDateHeader(HttpHeaders.LAST_MODIFIED)).isEqualTo(LAST_MODIFIED / 1000 * 1000);
+		assertWritten(0, LENGTH);
+	}
+
+	@Test
+	void headSendsHeadersOnly() throws IOException {
+		request.setMethod("HEAD");
+		serve();
+
+		assertThat(response.getStatus()).isEqualTo(200);
+		assertThat(response.getContentLengthLong()).isEqualTo(LENGTH);
+		assertThat(written).isEmpty();
+	}
+
+	@Test
+	void closedRangeIsPartialContent() throws IOException {
+		range("bytes=0-99");
+
+		assertPartial(0, 100);
+	}
+
+	@Test
+	void openRangeRunsToTheEnd() throws IOException {
+		range("bytes=900-");
+
+		assertPartial(900, LENGTH);
+	}
+
+	@Test
+	void lastPositionPastTheEndIsClamped() throws IOException {
+		range("bytes=990-5000");
+
+		assertPartial(990, LENGTH);
+	}
+
+	@Test
+	void suffixRangeSendsTheLastBytes() throws IOException {
+		range("bytes=-100");
+
+		assertPartial(900, LENGTH);
+	}
+
+	@Test
+	void suffixLongerThanTheImageSendsAllOfIt() throws IOException {
+		range("bytes=-5000");
+
+		assertPartial(0, LENGTH);
+	}
+
+	@Test
+	void zeroLengthSuffixIsUnsatisfiable() throws IOException {
+		range("bytes=-0");
+
+		assertUnsatisfiable();
+	}
+
+	@Test
+	void startAtOrBeyondTheEndIsUnsatisfiable() throws IOException {
+		range("bytes=1000-");
+		assertUnsatisfiable();
+
+		reset();
+		range("bytes=1500-1600");
+		assertUnsatisfiable();
+	}
+
+	@Test
+	void lastBeforeFirstIsIgnored() throws IOException {
+		range("bytes=500-100");
+		assertFullBody();
+
+		// Invalid even when the start is past the end: ignored rather than 416
+		reset();
+		range("bytes=2000-1000");
+		assertFullBody();
+	}
+
+	@Test
+	void multipleOrMalformedRangesFallBackToTheFullBody() throws IOException {
+		for (String header : new String[] {"bytes=0-1,5-6", "bytes=abc", "bytes=--5", "bytes=+1-5", "items=0-1", "bytes=5"}) {
+			reset();
+			range(header);
+			assertThat(response.getStatus()).as(header).isEqualTo(200);
+			assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).as(header).isNull();
+			assertWritten(0, LENGTH);
+		}
+	}
+
+	@Test
+	void ifRangeWithTheCurrentEtagHonoursTheRange() throws IOException {
+		request.addHeader(HttpHeaders.IF_RANGE, ETAG);
+		range("bytes=0-99");
+
+		assertPartial(0, 100);
+	}
+
+	@Test
+	void ifRangeWithAnotherEtagSendsTheFullBody() throws IOException {
+		request.addHeader(HttpHeaders.IF_RANGE, "\"old\"");
+		range("bytes=0-99");
+
+		assertFullBody();
+	}
+
+	@Test
+	void ifRangeUsesStrongComparison() throws IOException {
+		request.addHeader(HttpHeaders.IF_RANGE, "W/" + ETAG);
+		range("bytes=0-99");
+
+		assertFullBody();
+	}
+
+	@Test
+	void ifRangeWithTheLastModifiedDateHonoursTheRange() throws IOException {
+		request.addHeader(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED));
+		range("bytes=0-99");
+		assertPartial(0, 100);
+
+		reset();
+		request.addHeader(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED - 60_000));
+		range("bytes=0-99");
+		assertFullBody();
+	}
+
+	@Test
+	void ifNoneMatchUsesWeakComparison() throws IOException {
+		for (String header : new String[] {ETAG, "W/" + ETAG, "\"other\", " + ETAG, "*"}) {
+			reset();
+			request.addHeader(HttpHeaders.IF_NONE_MATCH, header);
+			serve();
+			assertThat(response.getStatus()).as(header).isEqualTo(304);
+			assertThat(written).as(header).isEmpty();
+		}
+	}
+
+	@Test
+	void ifNoneMatchMismatchSendsTheBody() throws IOException {
+		request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+		serve();
+
+		assertFullBody();
+	}
+
+	@Test
+	void ifModifiedSinceComparesWholeSeconds() throws IOException {
+		request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED));
+		serve();
+		assertThat(response.getStatus()).isEqualTo(304);
+		assertThat(written).isEmpty();
+
+		reset();
+		request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED - 1000));
+		serve();
+		assertFullBody();
+	}
+
+	@Test
+	void ifNoneMatchTakesPrecedenceOverIfModifiedSince() throws IOException {
+		request.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+		request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED + 60_000));
+		serve();
+
+		assertFullBody();
+	}
+
+	@Test
+	void malformedIfModifiedSinceIsIgnored() throws IOException {
+		request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, "yesterday");
+		serve();
+
+		assertFullBody();
+	}
+
+	private void range(String header) throws IOException {
+		request.addHeader(HttpHeaders.RANGE, header);
+		serve();
+	}
+
+	private void serve() throws IOException {
+		ImageResponseUtil.serve(request, response, "a_thumb.jpg", LENGTH, LAST_MODIFIED, ETAG, false,
+				(start, end) -> written.add(new long[] {start, end}));
+	}
+
+	private void reset() {
+		request.clearAttributes();
+		for (String name : new String[] {HttpHeaders.RANGE, HttpHeaders.IF_RANGE,
+				HttpHeaders.IF_NONE_MATCH, HttpHeaders.IF_MODIFIED_SINCE}) {
+			request.removeHeader(name);
+		}
+		response.reset();
+		written.clear();
+	}
+
+	private void assertPartial(long start, long end) {
+		assertThat(response.getStatus()).isEqualTo(206);
+		assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes " + start + "-" + (end - 1) + "/" + LENGTH);
+		assertThat(response.getContentLengthLong()).isEqualTo(end - start);
+		assertWritten(start, end);
+	}
+
+	private void assertFullBody() {
+		assertThat(response.getStatus()).isEqualTo(200);
+		assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+		assertWritten(0, LENGTH);
+	}
+
+	private void assertUnsatisfiable() {
+		assertThat(response.getStatus()).isEqualTo(416);
+		assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */" + LENGTH);
+		assertThat(written).isEmpty();
+	}
+
+	private void assertWritten(long start, long end) {
+		assertThat(written).hasSize(1);
+		assertThat(written.get(0)).containsExactly(start, end);
+	}
+
+	private static String httpDate(long millis) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atOffset(ZoneOffset.UTC));
+	}
+}